@@ -0,0 +1,121 @@
+package modbus;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * The response timeouts of the devices of one connection.
+ *
+ * When adaptive timeouts are off, every device gets the connection's timeout.
+ * When on, each device's timeout is derived from the round trips of its last
+ * WINDOW responses, at TIMEOUT_FACTOR times their 99th percentile, kept
+ * between the configured floor and the connection's timeout as the ceiling.
+ * A device only gets its own timeout once it has answered MIN_SAMPLES times.
+ *
+ * Requests that time out leave no round trip behind, so a timeout doubles the
+ * device's timeout instead. A device that slowed down is thus back at the
+ * ceiling after a few attempts, rather than timing out against a value learned
+ * while it was fast.
+ *
+ * Devices are told apart by slave id, which is all a master knows of them.
+ *
+ * */
+class AdaptiveTimeouts {
+	private static final Logger LOGGER;
+
+	private static final int WINDOW = 64;
+	private static final int MIN_SAMPLES = 16;
+	// how many responses go by between two updates of the timeout
+	private static final int UPDATE_EVERY = 8;
+	private static final int TIMEOUT_FACTOR = 2;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(AdaptiveTimeouts.class);
+	}
+
+	private final ConcurrentMap<Integer, ResponseTimes> devices = new ConcurrentHashMap<>();
+	private volatile boolean enabled;
+	private volatile int floor;
+	private volatile int ceiling;
+
+	void configure(boolean enabled, int floor, int ceiling) {
+		this.enabled = enabled;
+		this.ceiling = ceiling;
+		this.floor = Math.max(1, Math.min(floor, ceiling));
+		for (ResponseTimes times : devices.values()) {
+			times.update();
+		}
+	}
+
+	/**
+	 * @return the timeout in milliseconds to wait for a response of the device
+	 */
+	int getTimeout(int slaveId) {
+		if (!enabled) {
+			return ceiling;
+		}
+		ResponseTimes times = devices.get(slaveId);
+		return times != null ? times.timeout : ceiling;
+	}
+
+	void responded(int slaveId, long roundTripNanos) {
+		if (enabled) {
+			devices.computeIfAbsent(slaveId, id -> new ResponseTimes(id)).add(roundTripNanos);
+		}
+	}
+
+	void timedOut(int slaveId) {
+		if (enabled) {
+			ResponseTimes times = devices.get(slaveId);
+			if (times != null) {
+				times.timedOut();
+			}
+		}
+	}
+
+	private class ResponseTimes {
+		private final int slaveId;
+		private final long[] samples = new long[WINDOW];
+		private int count;
+		private int next;
+		private volatile int timeout = ceiling;
+
+		ResponseTimes(int slaveId) {
+			this.slaveId = slaveId;
+		}
+
+		synchronized void add(long nanos) {
+			samples[next] = nanos;
+			next = (next + 1) % WINDOW;
+			count++;
+			if (count >= MIN_SAMPLES && count % UPDATE_EVERY == 0) {
+				update();
+			}
+		}
+
+		synchronized void timedOut() {
+			timeout = Math.min(ceiling, Math.max(floor, timeout * 2));
+		}
+
+		synchronized void update() {
+			if (count < MIN_SAMPLES) {
+				timeout = ceiling;
+				return;
+			}
+			long[] sorted = Arrays.copyOf(samples, Math.min(count, WINDOW));
+			Arrays.sort(sorted);
+			long p50 = sorted[sorted.length / 2];
+			long p99 = sorted[(sorted.length * 99 - 1) / 100];
+			long millis = TimeUnit.NANOSECONDS.toMillis(p99 * TIMEOUT_FACTOR) + 1;
+			timeout = (int) Math.max(floor, Math.min(ceiling, millis));
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("slave " + slaveId + ": p50 " + TimeUnit.NANOSECONDS.toMillis(p50) + " ms, p99 "
+						+ TimeUnit.NANOSECONDS.toMillis(p99) + " ms, timeout " + timeout + " ms");
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package modbus;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * The reconnect state of one connection.
+ *
+ * CLOSED while the connection is up. A failed connect opens the breaker, and
+ * it stays OPEN for a backoff that doubles with every consecutive failure, up
+ * to MAX_DELAY_MS. Once that has passed the breaker is HALF_OPEN for a single
+ * reconnect attempt, which either closes it or opens it again.
+ *
+ * Half of every backoff is random, so connections that went down together,
+ * say in a site-wide network blip, don't all come back in lockstep and hammer
+ * the same gateways.
+ *
+ * */
+class CircuitBreaker {
+	static final long BASE_DELAY_MS = 1000;
+	static final long MAX_DELAY_MS = 60000;
+
+	enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private volatile State state = State.CLOSED;
+	private int failures;
+	private long trips;
+
+	/**
+	 * @return whether the connection is known to be down and nothing should be
+	 *         sent over it until the next reconnect attempt
+	 */
+	boolean isOpen() {
+		return state == State.OPEN;
+	}
+
+	synchronized int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return how many times the breaker opened since the link started
+	 */
+	synchronized long getTrips() {
+		return trips;
+	}
+
+	/**
+	 * Opens the breaker after a failed connect.
+	 *
+	 * @return how long to wait before the next attempt, in milliseconds
+	 */
+	synchronized long trip() {
+		state = State.OPEN;
+		trips++;
+		// the shift is bounded long before the delay could overflow
+		long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(failures, 16));
+		failures++;
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	/**
+	 * Lets the one reconnect attempt through.
+	 */
+	void halfOpen() {
+		state = State.HALF_OPEN;
+	}
+
+	/**
+	 * Closes the breaker after a successful connect.
+	 *
+	 * @return the number of failed attempts this ends
+	 */
+	synchronized int close() {
+		int ended = failures;
+		failures = 0;
+		state = State.CLOSED;
+		return ended;
+	}
+}
@@ -0,0 +1,112 @@
+package modbus;
+
+/*
+ * Whether a device is answering, judged from the outcomes of its polls rather
+ * than from pings.
+ *
+ * The outcomes of the last WINDOW polls are kept. A device is taken as down
+ * after DOWN_CONSECUTIVE_FAILURES failed polls in a row, or when at least
+ * DOWN_FAILURE_RATIO of the polls in the window failed, which catches devices
+ * that only answer every other time. The ratio only counts once the window
+ * holds MIN_OUTCOMES polls, as two failures out of the first four say little.
+ *
+ * While it is down it is not polled, but probed every PROBE_INTERVAL_MS, and
+ * the first probe it answers brings it back up with a clean window.
+ *
+ * */
+class DeviceHealth {
+	static final int WINDOW = 20;
+	static final int MIN_OUTCOMES = WINDOW / 2;
+	static final int DOWN_CONSECUTIVE_FAILURES = 3;
+	static final double DOWN_FAILURE_RATIO = 0.5;
+	static final long PROBE_INTERVAL_MS = 15000;
+
+	private final boolean[] failures = new boolean[WINDOW];
+	private int count;
+	private int next;
+	private int failed;
+	private int consecutiveFailures;
+
+	private volatile boolean down;
+	private volatile boolean probeFailed;
+	private long nextProbe;
+
+	boolean isDown() {
+		return down;
+	}
+
+	/**
+	 * @return whether the last probe of a device that is down went unanswered
+	 */
+	boolean isProbeFailed() {
+		return probeFailed;
+	}
+
+	/**
+	 * Records the outcome of a poll.
+	 *
+	 * @return whether this took the device down
+	 */
+	synchronized boolean record(boolean succeeded, long now) {
+		if (count == WINDOW) {
+			if (failures[next]) {
+				failed--;
+			}
+		} else {
+			count++;
+		}
+		failures[next] = !succeeded;
+		next = (next + 1) % WINDOW;
+		if (succeeded) {
+			consecutiveFailures = 0;
+			return false;
+		}
+		failed++;
+		consecutiveFailures++;
+
+		if (!down && (consecutiveFailures >= DOWN_CONSECUTIVE_FAILURES
+				|| (count >= MIN_OUTCOMES && failed >= DOWN_FAILURE_RATIO * count))) {
+			down = true;
+			probeFailed = false;
+			nextProbe = now + PROBE_INTERVAL_MS;
+			return true;
+		}
+		return false;
+	}
+
+	synchronized boolean isProbeDue(long now) {
+		return down && now >= nextProbe;
+	}
+
+	/**
+	 * Records the outcome of a probe of a device that is down.
+	 *
+	 * @return whether this brought the device back up
+	 */
+	synchronized boolean probed(boolean succeeded, long now) {
+		if (!succeeded) {
+			probeFailed = true;
+			nextProbe = now + PROBE_INTERVAL_MS;
+			return false;
+		}
+		boolean wasDown = down;
+		reset();
+		return wasDown;
+	}
+
+	/**
+	 * Forgets all outcomes, for when they were down to the connection rather
+	 * than the device.
+	 */
+	synchronized void reset() {
+		for (int i = 0; i < WINDOW; i++) {
+			failures[i] = false;
+		}
+		count = 0;
+		next = 0;
+		failed = 0;
+		consecutiveFailures = 0;
+		down = false;
+		probeFailed = false;
+	}
+}
@@ -0,0 +1,5 @@
+package modbus;
+
+public enum IoEngine {
+	BLOCKING, NIO
+}
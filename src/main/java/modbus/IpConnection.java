@@ -25,11 +25,18 @@ public class IpConnection extends ModbusConnection {
 	static final String ATTR_NAME = "name";
 	static final String ATTR_TRANSPORT_TYPE = "transport type";
 	static final String ATTR_PORT = "port";
+	static final String ATTR_MAX_IN_FLIGHT = "max requests in flight";
+	static final String ATTR_IO_ENGINE = "io engine";
 	static final String ADD_IP_DEVICE_ACTION = "add ip device";
 
+	static final String DESCRIPTION_MAX_IN_FLIGHT = "TCP only: how many requests may await a response at once, 1 for one at a time";
+	static final String DESCRIPTION_IO_ENGINE = "NIO shares a few selector threads across all connections instead of a blocking socket per connection";
+
 	IpTransportType transType;
 	String host;
 	int port;
+	int maxInFlight;
+	IoEngine ioEngine;
 
 	IpConnection(ModbusLink link, Node node) {
 		super(link, node);
@@ -50,21 +57,36 @@ public class IpConnection extends ModbusConnection {
 		readMasterAttributes();
 
 		IpParameters params;
-		switch (transType) {
-		case TCP:
-			params = new IpParameters();
-			params.setHost(host);
-			params.setPort(port);
-			master = modbusFactory.createTcpMaster(params, true);
-			break;
-		case UDP:
-			params = new IpParameters();
-			params.setHost(host);
-			params.setPort(port);
-			master = modbusFactory.createUdpMaster(params);
-			break;
-		default:
-			return null;
+		maxConcurrentPolls = 1;
+		if (ioEngine == IoEngine.NIO) {
+			// the in-flight window is a TCP setting, UDP keeps one request at a time
+			int window = transType == IpTransportType.TCP ? maxInFlight : 1;
+			master = new NioModbusMaster(transType, host, port, window, timeouts);
+			maxConcurrentPolls = window;
+		} else {
+			switch (transType) {
+			case TCP:
+				// modbus4j's master can't take a timeout per device
+				if (maxInFlight > 1 || adaptiveTimeout) {
+					master = new PipelinedTcpMaster(host, port, maxInFlight, timeouts);
+					// lets the polls of several devices share the window
+					maxConcurrentPolls = maxInFlight;
+					break;
+				}
+				params = new IpParameters();
+				params.setHost(host);
+				params.setPort(port);
+				master = modbusFactory.createTcpMaster(params, true);
+				break;
+			case UDP:
+				params = new IpParameters();
+				params.setHost(host);
+				params.setPort(port);
+				master = modbusFactory.createUdpMaster(params);
+				break;
+			default:
+				return null;
+			}
 		}
 
 		writeMasterParameters();
@@ -118,13 +140,20 @@ public class IpConnection extends ModbusConnection {
 
 	@Override
 	Action getEditAction() {
+		// init() builds this before getMaster() has read the attributes
+		readIpAttributes();
 		Action act = new Action(Permission.READ, new EditHandler());
 		act.addParameter(new Parameter(ATTR_NAME, ValueType.STRING, new Value(node.getName())));
 		act.addParameter(new Parameter(ATTR_TRANSPORT_TYPE, ValueType.makeEnum(Util.enumNames(IpTransportType.class))));
 		act.addParameter(new Parameter(ATTR_HOST, ValueType.STRING, node.getAttribute(ATTR_HOST)));
 		act.addParameter(new Parameter(ATTR_PORT, ValueType.NUMBER, node.getAttribute(ATTR_PORT)));
+		act.addParameter(new Parameter(ATTR_MAX_IN_FLIGHT, ValueType.NUMBER, new Value(maxInFlight))
+				.setDescription(DESCRIPTION_MAX_IN_FLIGHT));
+		act.addParameter(new Parameter(ATTR_IO_ENGINE, ValueType.makeEnum(Util.enumNames(IoEngine.class)),
+				new Value(ioEngine.toString())).setDescription(DESCRIPTION_IO_ENGINE));
 
 		act.addParameter(new Parameter(ATTR_TIMEOUT, ValueType.NUMBER, node.getAttribute(ATTR_TIMEOUT)));
+		addAdaptiveTimeoutParameters(act);
 		act.addParameter(new Parameter(ATTR_RETRIES, ValueType.NUMBER, node.getAttribute(ATTR_RETRIES)));
 		act.addParameter(
 				new Parameter(ATTR_MAX_READ_BIT_COUNT, ValueType.NUMBER, node.getAttribute(ATTR_MAX_READ_BIT_COUNT)));
@@ -136,6 +165,7 @@ public class IpConnection extends ModbusConnection {
 				new Parameter(ATTR_DISCARD_DATA_DELAY, ValueType.NUMBER, node.getAttribute(ATTR_DISCARD_DATA_DELAY)));
 		act.addParameter(new Parameter(ATTR_USE_MULTIPLE_WRITE_COMMAND, ValueType.makeEnum(MULTIPLE_WRITE_COMMAND_OPTIONS),
 				node.getAttribute(ATTR_USE_MULTIPLE_WRITE_COMMAND)));
+		addConnectOnSubscribeParameters(act);
 		return act;
 	}
 
@@ -176,6 +206,8 @@ public class IpConnection extends ModbusConnection {
 			boolean batchpoll = event.getParameter(ATTR_USE_BATCH_POLLING, ValueType.BOOL).getBool();
 			boolean contig = event.getParameter(ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, ValueType.BOOL).getBool();
 			long suppressDuration = (long) (event.getParameter(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, ValueType.NUMBER).getNumber().doubleValue() * 1000);
+			int maxGap = event.getParameter(ATTR_MAX_READ_GAP, ValueType.NUMBER).getNumber().intValue();
+			int coalescingWindow = event.getParameter(ATTR_WRITE_COALESCING_WINDOW, new Value(0)).getNumber().intValue();
 
 			deviceNode.setAttribute(ATTR_SLAVE_ID, new Value(slaveid));
 			deviceNode.setAttribute(ATTR_POLLING_INTERVAL, new Value(intervalMs));
@@ -183,6 +215,8 @@ public class IpConnection extends ModbusConnection {
 			deviceNode.setAttribute(ATTR_USE_BATCH_POLLING, new Value(batchpoll));
 			deviceNode.setAttribute(ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, new Value(contig));
 			deviceNode.setAttribute(ATTR_SUPPRESS_NON_COV_DURATION, new Value(suppressDuration));
+			deviceNode.setAttribute(ATTR_MAX_READ_GAP, new Value(maxGap));
+			deviceNode.setAttribute(ATTR_WRITE_COALESCING_WINDOW, new Value(coalescingWindow));
 
 			new SlaveNode(conn, deviceNode);
 		}
@@ -192,12 +226,18 @@ public class IpConnection extends ModbusConnection {
 		transType = IpTransportType.valueOf(node.getAttribute(ATTR_TRANSPORT_TYPE).getString().toUpperCase());
 		host = node.getAttribute(ATTR_HOST).getString();
 		port = node.getAttribute(ATTR_PORT).getNumber().intValue();
+		Value inFlight = node.getAttribute(ATTR_MAX_IN_FLIGHT);
+		maxInFlight = inFlight != null ? Math.max(1, inFlight.getNumber().intValue()) : 1;
+		Value engine = node.getAttribute(ATTR_IO_ENGINE);
+		ioEngine = engine != null ? parseIoEngine(engine.getString()) : IoEngine.BLOCKING;
 	}
 
 	void writeIpAttributes() {
 		node.setAttribute(ATTR_TRANSPORT_TYPE, new Value(transType.toString()));
 		node.setAttribute(ATTR_HOST, new Value(host));
 		node.setAttribute(ATTR_PORT, new Value(port));
+		node.setAttribute(ATTR_MAX_IN_FLIGHT, new Value(maxInFlight));
+		node.setAttribute(ATTR_IO_ENGINE, new Value(ioEngine.toString()));
 	}
 
 	void readIpParameters(ActionResult event) {
@@ -205,6 +245,16 @@ public class IpConnection extends ModbusConnection {
 				.valueOf(event.getParameter(ATTR_TRANSPORT_TYPE, ValueType.STRING).getString().toUpperCase());
 		host = event.getParameter(ATTR_HOST, ValueType.STRING).getString();
 		port = event.getParameter(ATTR_PORT, ValueType.NUMBER).getNumber().intValue();
+		maxInFlight = Math.max(1, event.getParameter(ATTR_MAX_IN_FLIGHT, new Value(maxInFlight)).getNumber().intValue());
+		ioEngine = parseIoEngine(event.getParameter(ATTR_IO_ENGINE, new Value(ioEngine.toString())).getString());
+	}
+
+	static IoEngine parseIoEngine(String str) {
+		try {
+			return IoEngine.valueOf(str.toUpperCase());
+		} catch (Exception e) {
+			return IoEngine.BLOCKING;
+		}
 	}
 
 	public String getHost() {
@@ -26,6 +26,9 @@ import org.slf4j.LoggerFactory;
 public class IpConnectionWithDevice extends IpConnection {
 	private static final Logger LOGGER;
 
+	static final String ATTR_GATEWAY_CONNECTIONS = "gateway connections";
+	static final String DESCRIPTION_GATEWAY_CONNECTIONS = "how many TCP connections to open to the host; a device shares the connection of its slave id, or else gets the one with the fewest devices. Only takes effect as devices are added or restored";
+
 	static {
 		LOGGER = LoggerFactory.getLogger(IpConnectionWithDevice.class);
 	}
@@ -58,15 +61,13 @@ public class IpConnectionWithDevice extends IpConnection {
 	}
 
 	@Override
-	void init() {
-		master = getMaster();
-		if (master != null) {
-			statnode.setValue(new Value(NODE_STATUS_CONNECTED));
-			retryDelay = 1;
-		} else {
-			statnode.setValue(new Value(NODE_STATUS_CONNECTION_ESTABLISHMENT_FAILED));
-			scheduleReconnect();
-		}
+	void makeActions() {
+		// the actions of a legacy connection live on its device nodes
+	}
+
+	@Override
+	void makeAddDeviceAction() {
+		// the devices of a legacy connection are added from the link
 	}
 
 	synchronized SlaveNode addSlave(Node slaveNode) {
@@ -100,6 +101,35 @@ public class IpConnectionWithDevice extends IpConnection {
 			anode.setAction(act);
 	}
 
+	/**
+	 * @return whether a device with the slave id polls through this connection
+	 */
+	boolean hasSlaveId(int slaveId) {
+		for (SlaveNode sn : new HashSet<>(slaves)) {
+			if (sn.slaveId == slaveId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return how many connections the devices of this connection asked to
+	 *         have to their host
+	 */
+	int getGatewayConnections() {
+		int size = 1;
+		for (SlaveNode sn : new HashSet<>(slaves)) {
+			size = Math.max(size, getGatewayConnections(sn.node));
+		}
+		return size;
+	}
+
+	static int getGatewayConnections(Node deviceNode) {
+		Value size = deviceNode.getAttribute(ATTR_GATEWAY_CONNECTIONS);
+		return size != null ? Math.max(1, Util.getIntValue(size)) : 1;
+	}
+
 	void slaveRemoved() {
 		if (slaves.isEmpty()) {
 			remove();
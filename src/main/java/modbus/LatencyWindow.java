@@ -0,0 +1,40 @@
+package modbus;
+
+import java.util.Arrays;
+
+/*
+ * The durations of the last WINDOW requests of some kind, for publishing a
+ * high percentile of them. Meant for requests that are rare next to polls, as
+ * working out a percentile sorts a copy of the window.
+ *
+ * */
+class LatencyWindow {
+	static final int WINDOW = 200;
+
+	private final long[] nanos = new long[WINDOW];
+	private int count;
+	private int next;
+
+	synchronized void record(long duration) {
+		nanos[next] = duration;
+		next = (next + 1) % WINDOW;
+		if (count < WINDOW) {
+			count++;
+		}
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the percentile of the recorded durations in milliseconds, or 0
+	 *         if there are none
+	 */
+	synchronized double getPercentileMs(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(nanos, count);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100 * count) - 1;
+		return sorted[Math.max(0, Math.min(count - 1, index))] / 1e6;
+	}
+}
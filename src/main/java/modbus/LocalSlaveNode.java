@@ -8,7 +8,6 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import org.dsa.iot.dslink.node.Node;
 import org.dsa.iot.dslink.node.Permission;
 import org.dsa.iot.dslink.node.actions.Action;
@@ -16,7 +15,6 @@ import org.dsa.iot.dslink.node.actions.ActionResult;
 import org.dsa.iot.dslink.node.actions.Parameter;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
-import org.dsa.iot.dslink.util.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,7 +36,6 @@ public class LocalSlaveNode extends LocalSlaveFolder {
 	private final Node statusNode;
 
 	private ModbusSlaveSet activeListener;
-	private final ScheduledThreadPoolExecutor listenerStpe;
 
 	protected BasicProcessImage processImage;
 	protected BasicProcessImageListener processImageListener;
@@ -50,8 +47,6 @@ public class LocalSlaveNode extends LocalSlaveFolder {
 		this.root = this;
 		this.statusNode = getStatusNode();
 
-		this.listenerStpe = Objects.createDaemonThreadPool();
-
 		this.processImage = getProcessImage();
 		this.processImageListener = getProcessImageListener();
 		this.processImage.addListener(this.processImageListener);
@@ -137,33 +132,33 @@ public class LocalSlaveNode extends LocalSlaveFolder {
 	}
 
 	void startListening() {
-		if (listenerStpe != null) {
-
-			listenerStpe.execute(() -> {
-				try {
-					statusNode.setValue(new Value(STATUS_START_LISTENING));
-					activeListener.start();
-				} catch (ModbusInitException e) {
-					e.printStackTrace();
-				}
-			});
-
-		}
+		// start() only returns once the listener is stopped, so it gets a
+		// thread of its own rather than tying up a shared worker
+		final ModbusSlaveSet listener = activeListener;
+		Thread listenerThread = new Thread(() -> {
+			try {
+				statusNode.setValue(new Value(STATUS_START_LISTENING));
+				listener.start();
+			} catch (ModbusInitException e) {
+				LOGGER.error("unable to start listening on " + node.getName() + ": " + e.getMessage());
+				LOGGER.debug("error: ", e);
+			}
+		}, "Modbus listener " + node.getName());
+		listenerThread.setDaemon(true);
+		listenerThread.start();
 	}
 
 	void stopListening() {
-		if (listenerStpe != null) {
-
-			listenerStpe.execute(() -> {
-				try {
-					statusNode.setValue(new Value(STATUS_STOP_LISTENING));
-					activeListener.stop();
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			});
-
-		}
+		final ModbusSlaveSet listener = activeListener;
+		SharedExecutor.execute(() -> {
+			try {
+				statusNode.setValue(new Value(STATUS_STOP_LISTENING));
+				listener.stop();
+			} catch (Exception e) {
+				LOGGER.error("unable to stop listening on " + node.getName() + ": " + e.getMessage());
+				LOGGER.debug("error: ", e);
+			}
+		});
 	}
 
 	private ModbusSlaveSet getActiveSlaveSet() {
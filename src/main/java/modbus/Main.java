@@ -39,6 +39,10 @@ public class Main extends DSLinkHandler {
 	@Override
 	public void stop() {
 		ModbusLink ml = ModbusLink.get();
+		ml.pollScheduler.stop();
+		ml.snapshot.stop(ml);
+		SharedExecutor.shutdown();
+		NioEngine.shutdown();
 		for (ModbusMaster master : ml.masters) {
 			try {
 				master.destroy();
@@ -2,9 +2,16 @@ package modbus;
 
 import com.serotonin.modbus4j.ModbusFactory;
 import com.serotonin.modbus4j.ModbusMaster;
+import com.serotonin.modbus4j.exception.ModbusTransportException;
+import com.serotonin.modbus4j.msg.ModbusRequest;
+import com.serotonin.modbus4j.msg.ModbusResponse;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
@@ -42,6 +49,10 @@ abstract public class ModbusConnection {
 	static final String ATTR_USE_BATCH_POLLING = "use batch polling";
 	static final String ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY = "contiguous batch requests only";
 	static final String ATTR_SUPPRESS_NON_COV_DURATION = "suppress non-cov update duration";
+	static final String ATTR_MAX_READ_GAP = "max read gap";
+	static final String DESCRIPTION_MAX_READ_GAP = "registers (or bits) that a batch request may read across between two points, -1 for no limit";
+	static final String ATTR_WRITE_COALESCING_WINDOW = "write coalescing window";
+	static final String DESCRIPTION_WRITE_COALESCING_WINDOW = "milliseconds to hold writes back, so that writes to adjacent registers or coils go out as one request, 0 to send every write at once";
 
 	static final String ATTR_CONNECTION_NAME = "name";
 	static final String ATTR_TRANSPORT_TYPE = "transport type";
@@ -52,6 +63,17 @@ abstract public class ModbusConnection {
 	static final String ATTR_MAX_WRITE_REGISTER_COUNT = "max write register count";
 	static final String ATTR_DISCARD_DATA_DELAY = "discard data delay";
 	static final String ATTR_USE_MULTIPLE_WRITE_COMMAND = "use multiple write commands";
+	static final String ATTR_ADAPTIVE_TIMEOUT = "adaptive timeout";
+	static final String ATTR_MIN_TIMEOUT = "min timeout";
+	static final String ATTR_CONNECT_ON_SUBSCRIBE = "connect on subscribe";
+	static final String ATTR_IDLE_CLOSE_DELAY = "idle close delay";
+
+	static final String DESCRIPTION_ADAPTIVE_TIMEOUT = "derive each device's timeout from its measured response times, with Timeout as the upper limit";
+	static final String DESCRIPTION_MIN_TIMEOUT = "the lowest timeout in milliseconds that adaptive timeout may use";
+	static final int DEFAULT_MIN_TIMEOUT = 50;
+	static final String DESCRIPTION_CONNECT_ON_SUBSCRIBE = "only keep the connection open while points of its devices are subscribed to";
+	static final String DESCRIPTION_IDLE_CLOSE_DELAY = "how many seconds to keep the connection open after its last subscription ends, if connect on subscribe is set";
+	static final int DEFAULT_IDLE_CLOSE_DELAY = 60;
 	
 	static final String MULTIPLE_WRITE_COMMAND_ALWAYS = "Always";
 	static final String MULTIPLE_WRITE_COMMAND_NEVER = "Never";
@@ -71,6 +93,10 @@ abstract public class ModbusConnection {
 
 	static final String NODE_STATUS_CONNECTION_ESTABLISHMENT_FAILED = "Could not establish connection";
 	static final String NODE_STATUS_CONNECTION_STOPPED = "Stopped";
+	static final String NODE_STATUS_IDLE = "Idle, connects on subscribe";
+
+	static final String NODE_BUS_UTILIZATION = "Bus Utilization";
+	static final String NODE_WRITE_LATENCY = "Write Latency P99";
 
 	static final String ACTION_RESTART = "restart";
 	static final String ACTION_STOP = "stop";
@@ -79,9 +105,6 @@ abstract public class ModbusConnection {
     static final String ACTION_EXPORT = "export";
     static final String ACTION_IMPORT = "import device";
 
-	static final int RETRY_DELAY_MAX = 60;
-	static final int RETRY_DELAY_STEP = 2;
-
 	Node node;
 	Node statnode;
 	ModbusLink link;
@@ -90,7 +113,7 @@ abstract public class ModbusConnection {
 	Set<SlaveNode> slaves;
 	ScheduledFuture<?> reconnectFuture = null;
 	String name;
-	protected int retryDelay = 1;
+	final CircuitBreaker breaker = new CircuitBreaker();
 
 	int timeout;
 
@@ -100,8 +123,26 @@ abstract public class ModbusConnection {
 	int maxwrc;
 	int ddd;
 	String mw;
-
-	final ScheduledThreadPoolExecutor stpe = Objects.createDaemonThreadPool();
+	boolean adaptiveTimeout;
+	int minTimeout = DEFAULT_MIN_TIMEOUT;
+	boolean connectOnSubscribe;
+	int idleCloseDelay = DEFAULT_IDLE_CLOSE_DELAY;
+
+	// whether the connection is closed for lack of subscriptions, guarded by this
+	private boolean idle;
+	private ScheduledFuture<?> idleFuture;
+
+	// outlives the master, so what was learned survives a reconnect
+	final AdaptiveTimeouts timeouts = new AdaptiveTimeouts();
+
+	// one request at a time on masters that don't pipeline, writes first
+	final RequestGate requestGate = new RequestGate();
+	final LatencyWindow writeLatency = new LatencyWindow();
+	Node writeLatencyNode;
+
+	// polls of this connection's devices that are running or waiting for a slot
+	final PollScheduler.PollLane pollLane = new PollScheduler.PollLane();
+	int maxConcurrentPolls = 1;
 	final ModbusFactory modbusFactory;
 
 	public ModbusConnection(ModbusLink link, Node node) {
@@ -111,6 +152,11 @@ abstract public class ModbusConnection {
         modbusFactory = new ModbusFactory();
         this.statnode = node.createChild(NODE_STATUS, true).setValueType(ValueType.STRING)
                 .setValue(new Value(NODE_STATUS_SETTINGUP)).build();
+        writeLatencyNode = node.getChild(NODE_WRITE_LATENCY, true);
+        if (writeLatencyNode == null) {
+            writeLatencyNode = node.createChild(NODE_WRITE_LATENCY, true).setValueType(ValueType.NUMBER)
+                    .setValue(new Value(0)).build();
+        }
         slaves = new HashSet<>();
         node.setAttribute(ATTR_RESTORE_TYPE, new Value("conn"));
         link.connections.add(this);
@@ -144,6 +190,14 @@ abstract public class ModbusConnection {
 	}
 
 	void stop() {
+		synchronized (this) {
+			// a stopped connection stays closed whatever gets subscribed
+			idle = false;
+			if (idleFuture != null) {
+				idleFuture.cancel(false);
+				idleFuture = null;
+			}
+		}
 		synchronized (masterLock) {
 			if (master != null) {
 				try {
@@ -160,7 +214,16 @@ abstract public class ModbusConnection {
 	}
 
 	void restoreLastSession() {
-		init();
+		restoreNodes();
+		connect();
+	}
+
+	/**
+	 * Rebuilds the actions and devices of the connection without opening it,
+	 * so its points can be subscribed to while it connects.
+	 */
+	void restoreNodes() {
+		makeActions();
 
 		slaves.clear();
 
@@ -187,16 +250,26 @@ abstract public class ModbusConnection {
 			if (suppressDuration == null) {
 				child.setAttribute(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, new Value(60000));
 			}
+			Value maxGap = child.getAttribute(ATTR_MAX_READ_GAP);
+			if (maxGap == null) {
+				child.setAttribute(ATTR_MAX_READ_GAP, new Value(-1));
+			}
 			if (slaveId != null && interval != null) {
 				SlaveNode sn = new SlaveNode(this, child);
 				sn.restoreLastSession();
-			} else if (child.getAction() == null && !NODE_STATUS.equals(child.getName())) {
+			} else if (child.getAction() == null && !NODE_STATUS.equals(child.getName())
+					&& !NODE_BUS_UTILIZATION.equals(child.getName()) && !NODE_WRITE_LATENCY.equals(child.getName())) {
 				node.removeChild(child, false);
 			}
 		}
 	}
 
 	void init() {
+		makeActions();
+		connect();
+	}
+
+	void makeActions() {
 		Action act = getRemoveAction();
 
 		Node anode = node.getChild(ACTION_REMOVE, true);
@@ -223,29 +296,71 @@ abstract public class ModbusConnection {
 		}
 
 		makeStopAction();
+		makeExportAction();
+		makeImportAction();
+	}
 
+	/**
+	 * Opens the master and brings the status of the devices up to date.
+	 *
+	 * @return whether the connection is up
+	 */
+	boolean connect() {
+		readOnDemandAttributes();
+		if (stayIdle()) {
+			statnode.setValue(new Value(NODE_STATUS_IDLE));
+			makeAddDeviceAction();
+			for (SlaveNode slave : new HashSet<>(slaves)) {
+				slave.checkDeviceConnected();
+			}
+			return false;
+		}
 		synchronized (masterLock) {
 			master = getMaster();
-			if (master != null) {
-				statnode.setValue(new Value(NODE_STATUS_CONNECTED));
-				retryDelay = 1;
-				act = getAddDeviceAction();
-				anode = node.getChild(getAddDeviceActionName(), true);
-				if (anode == null) {
-					node.createChild(getAddDeviceActionName(), true).setAction(act).build().setSerializable(false);
-				} else {
-					anode.setAction(act);
-				}
-			} else {
+			if (master == null) {
 				statnode.setValue(new Value(NODE_STATUS_CONNECTION_ESTABLISHMENT_FAILED));
 				removeChild();
 				scheduleReconnect();
+				return false;
 			}
+			statnode.setValue(new Value(NODE_STATUS_CONNECTED));
+			connected();
+			makeAddDeviceAction();
+		}
+		for (SlaveNode slave : new HashSet<>(slaves)) {
+			slave.connectionRestored();
 		}
+		return true;
+	}
 
-		makeExportAction();
-		makeImportAction();
+	void makeAddDeviceAction() {
+		Action act = getAddDeviceAction();
+		Node anode = node.getChild(getAddDeviceActionName(), true);
+		if (anode == null) {
+			node.createChild(getAddDeviceActionName(), true).setAction(act).build().setSerializable(false);
+		} else {
+			anode.setAction(act);
+		}
+	}
 
+	/**
+	 * Replaces the master and nothing else. The devices, their points, read
+	 * plans and subscriptions stay as they are, and the polls that were held
+	 * back while the connection was down go out again on their next tick.
+	 */
+	void reconnect() {
+		synchronized (masterLock) {
+			if (master != null) {
+				try {
+					master.destroy();
+				} catch (Exception e) {
+					LOGGER.debug("error destroying last master" + e.getMessage());
+				}
+				link.masters.remove(master);
+				master = null;
+			}
+		}
+		connect();
 	}
 
 	class RestartHandler implements Handler<ActionResult> {
@@ -258,10 +373,6 @@ abstract public class ModbusConnection {
 		}
 	}
 
-	public ScheduledThreadPoolExecutor getDaemonThreadPool() {
-		return stpe;
-	}
-
 	public Action getRemoveAction() {
 		Action act = new Action(Permission.READ, event -> remove());
 
@@ -281,6 +392,9 @@ abstract public class ModbusConnection {
 		act.addParameter(new Parameter(ATTR_USE_BATCH_POLLING, ValueType.BOOL, new Value(true)));
 		act.addParameter(new Parameter(ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, ValueType.BOOL, new Value(false)));
 		act.addParameter(new Parameter(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, ValueType.NUMBER, new Value(60)).setDescription("how many seconds to wait before sending an update for an unchanged value"));
+		act.addParameter(new Parameter(ATTR_MAX_READ_GAP, ValueType.NUMBER, new Value(-1)).setDescription(DESCRIPTION_MAX_READ_GAP));
+		act.addParameter(new Parameter(ATTR_WRITE_COALESCING_WINDOW, ValueType.NUMBER, new Value(0))
+				.setDescription(DESCRIPTION_WRITE_COALESCING_WINDOW));
 		return act;
 	}
 
@@ -372,21 +486,183 @@ abstract public class ModbusConnection {
 		}
 	}
 
+	/**
+	 * Sends a request once the request gate lets it through.
+	 *
+	 * @throws ModbusTransportException if the connection is down or the
+	 *             request went unanswered
+	 */
+	ModbusResponse send(RequestGate.Priority priority, ModbusRequest request) throws ModbusTransportException {
+		return send(priority, Collections.singletonList(request)).get(0);
+	}
+
+	/**
+	 * Sends requests back to back, holding the request gate until the last
+	 * one is answered, so nothing else gets in between them.
+	 *
+	 * @return the responses, in the order of the requests
+	 * @throws ModbusTransportException if the connection is down or a request
+	 *             went unanswered, the requests after it are not sent
+	 */
+	List<ModbusResponse> send(RequestGate.Priority priority, Collection<ModbusRequest> requests)
+			throws ModbusTransportException {
+		List<ModbusResponse> responses = new ArrayList<>(requests.size());
+		requestGate.acquire(priority);
+		long start = System.nanoTime();
+		try {
+			synchronized (masterLock) {
+				for (ModbusRequest request : requests) {
+					if (master == null) {
+						throw new ModbusTransportException("connection closed", request.getSlaveId());
+					}
+					responses.add(master.send(request));
+				}
+			}
+		} finally {
+			requestGate.release();
+			pollLane.busy(System.nanoTime() - start);
+		}
+		return responses;
+	}
+
+	/**
+	 * Records how long a write that went through took, from the moment it was
+	 * asked for to its response, and publishes the 99th percentile of the
+	 * recent ones in ms. Failed writes are left out, their time says more
+	 * about the timeout than about the connection.
+	 */
+	void writeDone(long nanos) {
+		writeLatency.record(nanos);
+		writeLatencyNode.setValue(new Value(Math.round(writeLatency.getPercentileMs(99) * 10) / 10.0));
+	}
+
+	/**
+	 * Closes the circuit breaker once the master is up.
+	 */
+	void connected() {
+		int failures = breaker.close();
+		if (failures > 0) {
+			LOGGER.info(node.getName() + " reconnected after " + failures + " failed attempts");
+		}
+	}
+
 	synchronized void scheduleReconnect() {
 		if (link.restoring || (reconnectFuture != null && !reconnectFuture.isDone())) {
 			return;
 		}
+		long delay = breaker.trip();
+		LOGGER.info(node.getName() + " is down, attempt " + breaker.getFailures() + " to reconnect in " + delay
+				+ " ms (breaker opened " + breaker.getTrips() + " times)");
 		ScheduledThreadPoolExecutor reconnectStpe = Objects.getDaemonThreadPool();
 		reconnectFuture = reconnectStpe.schedule(() -> {
 			Value stat = statnode.getValue();
 			if (stat == null || !(NODE_STATUS_CONNECTED.equals(stat.getString())
 					|| NODE_STATUS_SETTINGUP.equals(stat.getString()))) {
-				stop();
-				restoreLastSession();
+				breaker.halfOpen();
+				reconnect();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return whether the connection only opens on subscribe and nothing is
+	 *         subscribed
+	 */
+	private synchronized boolean stayIdle() {
+		idle = connectOnSubscribe && !anySubscribed();
+		return idle;
+	}
+
+	synchronized boolean isIdle() {
+		return idle;
+	}
+
+	private boolean anySubscribed() {
+		for (SlaveNode slave : new HashSet<>(slaves)) {
+			if (!slave.noneSubscribed()) {
+				return true;
 			}
-		}, retryDelay, TimeUnit.SECONDS);
-		if (retryDelay < RETRY_DELAY_MAX)
-			retryDelay += RETRY_DELAY_STEP;
+		}
+		return false;
+	}
+
+	/**
+	 * Called when a point of one of the devices is subscribed to. Opens the
+	 * connection if it was idle.
+	 */
+	synchronized void subscribed() {
+		if (idleFuture != null) {
+			idleFuture.cancel(false);
+			idleFuture = null;
+		}
+		if (idle) {
+			idle = false;
+			statnode.setValue(new Value(NODE_STATUS_CONNECTING));
+			// opening the master may block, not in the subscription callback
+			Objects.getDaemonThreadPool().execute(this::connect);
+		}
+	}
+
+	/**
+	 * Called when a point of one of the devices is unsubscribed from. Closes
+	 * the connection idleCloseDelay seconds after the last subscription ended.
+	 */
+	synchronized void unsubscribed() {
+		if (!connectOnSubscribe || idle || idleFuture != null || anySubscribed()) {
+			return;
+		}
+		idleFuture = Objects.getDaemonThreadPool().schedule(this::closeIdle, idleCloseDelay, TimeUnit.SECONDS);
+	}
+
+	private void closeIdle() {
+		synchronized (this) {
+			idleFuture = null;
+			if (idle || anySubscribed()) {
+				return;
+			}
+			idle = true;
+			if (reconnectFuture != null) {
+				reconnectFuture.cancel(false);
+			}
+		}
+		synchronized (masterLock) {
+			if (!isIdle()) {
+				// subscribed to again in the meantime
+				return;
+			}
+			if (master != null) {
+				try {
+					master.destroy();
+				} catch (Exception e) {
+					LOGGER.debug("error destroying last master" + e.getMessage());
+				}
+				link.masters.remove(master);
+				master = null;
+			}
+			statnode.setValue(new Value(NODE_STATUS_IDLE));
+		}
+		LOGGER.info(node.getName() + " closed after " + idleCloseDelay + " seconds without subscriptions");
+		for (SlaveNode slave : new HashSet<>(slaves)) {
+			slave.checkDeviceConnected();
+		}
+	}
+
+	void addConnectOnSubscribeParameters(Action act) {
+		Value onSubscribe = node.getAttribute(ATTR_CONNECT_ON_SUBSCRIBE);
+		Value delay = node.getAttribute(ATTR_IDLE_CLOSE_DELAY);
+		act.addParameter(new Parameter(ATTR_CONNECT_ON_SUBSCRIBE, ValueType.BOOL,
+				onSubscribe != null ? onSubscribe : new Value(false)).setDescription(DESCRIPTION_CONNECT_ON_SUBSCRIBE));
+		act.addParameter(new Parameter(ATTR_IDLE_CLOSE_DELAY, ValueType.NUMBER,
+				delay != null ? delay : new Value(DEFAULT_IDLE_CLOSE_DELAY)).setDescription(DESCRIPTION_IDLE_CLOSE_DELAY));
+	}
+
+	void addAdaptiveTimeoutParameters(Action act) {
+		Value adaptive = node.getAttribute(ATTR_ADAPTIVE_TIMEOUT);
+		Value min = node.getAttribute(ATTR_MIN_TIMEOUT);
+		act.addParameter(new Parameter(ATTR_ADAPTIVE_TIMEOUT, ValueType.BOOL,
+				adaptive != null ? adaptive : new Value(false)).setDescription(DESCRIPTION_ADAPTIVE_TIMEOUT));
+		act.addParameter(new Parameter(ATTR_MIN_TIMEOUT, ValueType.NUMBER,
+				min != null ? min : new Value(DEFAULT_MIN_TIMEOUT)).setDescription(DESCRIPTION_MIN_TIMEOUT));
 	}
 
 	public void readMasterParameters(ActionResult event) {
@@ -398,6 +674,10 @@ abstract public class ModbusConnection {
 		maxwrc = event.getParameter(ATTR_MAX_WRITE_REGISTER_COUNT, ValueType.NUMBER).getNumber().intValue();
 		ddd = event.getParameter(ATTR_DISCARD_DATA_DELAY, ValueType.NUMBER).getNumber().intValue();
 		mw = event.getParameter(ATTR_USE_MULTIPLE_WRITE_COMMAND).getString();
+		adaptiveTimeout = event.getParameter(ATTR_ADAPTIVE_TIMEOUT, new Value(adaptiveTimeout)).getBool();
+		minTimeout = event.getParameter(ATTR_MIN_TIMEOUT, new Value(minTimeout)).getNumber().intValue();
+		connectOnSubscribe = event.getParameter(ATTR_CONNECT_ON_SUBSCRIBE, new Value(connectOnSubscribe)).getBool();
+		idleCloseDelay = event.getParameter(ATTR_IDLE_CLOSE_DELAY, new Value(idleCloseDelay)).getNumber().intValue();
 	}
 
 	public void writeMasterParameters() {
@@ -418,6 +698,10 @@ abstract public class ModbusConnection {
 		node.setAttribute(ATTR_MAX_WRITE_REGISTER_COUNT, new Value(maxwrc));
 		node.setAttribute(ATTR_DISCARD_DATA_DELAY, new Value(ddd));
 		node.setAttribute(ATTR_USE_MULTIPLE_WRITE_COMMAND, new Value(mw));
+		node.setAttribute(ATTR_ADAPTIVE_TIMEOUT, new Value(adaptiveTimeout));
+		node.setAttribute(ATTR_MIN_TIMEOUT, new Value(minTimeout));
+		node.setAttribute(ATTR_CONNECT_ON_SUBSCRIBE, new Value(connectOnSubscribe));
+		node.setAttribute(ATTR_IDLE_CLOSE_DELAY, new Value(idleCloseDelay));
 	}
 
 	public void readMasterAttributes() {
@@ -428,6 +712,21 @@ abstract public class ModbusConnection {
 		maxwrc = node.getAttribute(ATTR_MAX_WRITE_REGISTER_COUNT).getNumber().intValue();
 		ddd = node.getAttribute(ATTR_DISCARD_DATA_DELAY).getNumber().intValue();
 		mw = node.getAttribute(ATTR_USE_MULTIPLE_WRITE_COMMAND).getString();
+		Value adaptive = node.getAttribute(ATTR_ADAPTIVE_TIMEOUT);
+		adaptiveTimeout = adaptive != null && adaptive.getBool() != null && adaptive.getBool();
+		Value min = node.getAttribute(ATTR_MIN_TIMEOUT);
+		minTimeout = min != null ? min.getNumber().intValue() : DEFAULT_MIN_TIMEOUT;
+		timeouts.configure(adaptiveTimeout, minTimeout, timeout);
+	}
+
+	/**
+	 * Reads the on-demand settings, which are needed before the master is.
+	 */
+	void readOnDemandAttributes() {
+		Value onSubscribe = node.getAttribute(ATTR_CONNECT_ON_SUBSCRIBE);
+		connectOnSubscribe = onSubscribe != null && onSubscribe.getBool() != null && onSubscribe.getBool();
+		Value delay = node.getAttribute(ATTR_IDLE_CLOSE_DELAY);
+		idleCloseDelay = delay != null ? Math.max(0, delay.getNumber().intValue()) : DEFAULT_IDLE_CLOSE_DELAY;
 	}
 
 	public int getTimeout() {
@@ -6,15 +6,17 @@ import com.serotonin.modbus4j.ip.tcp.TcpSlave;
 import com.serotonin.modbus4j.ip.udp.UdpSlave;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.dsa.iot.dslink.node.Node;
 import org.dsa.iot.dslink.node.Permission;
 import org.dsa.iot.dslink.node.actions.Action;
@@ -52,10 +54,14 @@ public class ModbusLink {
 	static final String ATTRIBUTE_SLAVE_ID = "slave id";
 	static final String ATTRIBUTE_RESTORE_TYPE = "restoreType";
 
+	// how many connections are opened at once while the link starts
+	static final int MAX_PARALLEL_CONNECTS = 16;
+
 	Node node;
 	Serializer serializer;
 	Deserializer deserializer;
-	private final Map<SlaveNode, ScheduledFuture<?>> futures;
+	final PollScheduler pollScheduler;
+	final ValueSnapshot snapshot;
 	final Set<ModbusConnection> connections;
 	final Set<ModbusMaster> masters;
 
@@ -65,21 +71,23 @@ public class ModbusLink {
 	private final Map<Integer, ModbusSlaveSet> tcpListeners;
 	private final Map<Integer, ModbusSlaveSet> udpListeners;
 
-	private final Map<String, IpConnectionWithDevice> hostToConnection;
+	// the connections of the legacy devices, per gateway host
+	private final Map<String, List<IpConnectionWithDevice>> hostToConnections;
 	boolean restoring = true;
 
 	private ModbusLink(Node node, Serializer ser, Deserializer deser) {
 		this.node = node;
 		this.serializer = ser;
 		this.deserializer = deser;
-		this.futures = new ConcurrentHashMap<>();
+		this.pollScheduler = new PollScheduler();
+		this.snapshot = new ValueSnapshot();
 		this.connections = new HashSet<>();
 		this.masters = new HashSet<>();
 
 		this.tcpListeners = new HashMap<>();
 		this.udpListeners = new HashMap<>();
 
-		this.hostToConnection = new HashMap<>();
+		this.hostToConnections = new HashMap<>();
 	}
 
 	public static void start(Node parent, Serializer copyser, Deserializer copydeser) {
@@ -94,8 +102,13 @@ public class ModbusLink {
 	}
 
 	private void init() {
-		restoreLastSession();
+		long started = System.nanoTime();
+		snapshot.load();
+		List<ModbusConnection> restored = restoreLastSession();
 		restoring = false;
+		snapshot.start(this);
+		LOGGER.info("restored the node tree in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+				+ " ms, connecting " + restored.size() + " connections");
 
 		Action act = getAddIpConnectionAction();
 		node.createChild(ACTION_ADD_IP_CONNECTION, true).setAction(act).build().setSerializable(false);
@@ -113,6 +126,46 @@ public class ModbusLink {
 		node.createChild(ACTION_ADD_IP_DEVICE, true).setAction(act).build().setSerializable(false);
 
 		makeImportAction();
+
+		connectAll(restored, started);
+	}
+
+	/**
+	 * Opens the restored connections, at most MAX_PARALLEL_CONNECTS at a time,
+	 * so that unreachable hosts only hold up their own connect and not the
+	 * rest of the link. Their points can already be subscribed to, and are
+	 * polled as soon as their connection is up.
+	 */
+	private void connectAll(List<ModbusConnection> restored, final long started) {
+		if (restored.isEmpty()) {
+			return;
+		}
+		final int total = restored.size();
+		final AtomicInteger remaining = new AtomicInteger(total);
+		final AtomicInteger connected = new AtomicInteger();
+		ExecutorService connectPool = Executors.newFixedThreadPool(Math.min(total, MAX_PARALLEL_CONNECTS), r -> {
+			Thread thread = new Thread(r, "modbus-connect");
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (final ModbusConnection conn : restored) {
+			connectPool.execute(() -> {
+				try {
+					if (conn.connect()) {
+						connected.incrementAndGet();
+					}
+				} catch (Exception e) {
+					LOGGER.debug("error connecting " + conn.node.getName() + ": ", e);
+				} finally {
+					if (remaining.decrementAndGet() == 0) {
+						LOGGER.info("link live " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+								+ " ms after start, " + connected.get() + " of " + total + " connections up");
+					}
+				}
+			});
+		}
+		// the threads go away once the last connect is done
+		connectPool.shutdown();
 	}
 
 	private class PortScanHandler implements Handler<ActionResult> {
@@ -165,6 +218,8 @@ public class ModbusLink {
 				ValueType.makeEnum(Util.enumNames(IpTransportType.class))));
 		act.addParameter(new Parameter(IpConnection.ATTR_HOST, ValueType.STRING, new Value("")));
 		act.addParameter(new Parameter(IpConnection.ATTR_PORT, ValueType.NUMBER, new Value(502)));
+		act.addParameter(new Parameter(IpConnectionWithDevice.ATTR_GATEWAY_CONNECTIONS, ValueType.NUMBER, new Value(1))
+				.setDescription(IpConnectionWithDevice.DESCRIPTION_GATEWAY_CONNECTIONS));
 
 		act.addParameter(new Parameter(ModbusConnection.ATTR_SLAVE_ID, ValueType.NUMBER, new Value(1)));
 		act.addParameter(new Parameter(ModbusConnection.ATTR_POLLING_INTERVAL, ValueType.NUMBER, new Value(5)));
@@ -173,6 +228,9 @@ public class ModbusLink {
 		act.addParameter(
 				new Parameter(ModbusConnection.ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, ValueType.BOOL, new Value(false)));
 		act.addParameter(new Parameter(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, ValueType.NUMBER, new Value(60)).setDescription("how many seconds to wait before sending an update for an unchanged value"));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_MAX_READ_GAP, ValueType.NUMBER, new Value(-1)).setDescription(ModbusConnection.DESCRIPTION_MAX_READ_GAP));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW, ValueType.NUMBER, new Value(0))
+				.setDescription(ModbusConnection.DESCRIPTION_WRITE_COALESCING_WINDOW));
 
 		act.addParameter(new Parameter(ModbusConnection.ATTR_TIMEOUT, ValueType.NUMBER, new Value(500)));
 		act.addParameter(new Parameter(ModbusConnection.ATTR_RETRIES, ValueType.NUMBER, new Value(2)));
@@ -194,8 +252,16 @@ public class ModbusLink {
 		act.addParameter(new Parameter(ModbusConnection.ATTR_TRANSPORT_TYPE, ValueType.makeEnum("TCP", "UDP")));
 		act.addParameter(new Parameter(IpConnection.ATTR_HOST, ValueType.STRING, new Value("")));
 		act.addParameter(new Parameter(IpConnection.ATTR_PORT, ValueType.NUMBER, new Value(502)));
+		act.addParameter(new Parameter(IpConnection.ATTR_MAX_IN_FLIGHT, ValueType.NUMBER, new Value(1))
+				.setDescription(IpConnection.DESCRIPTION_MAX_IN_FLIGHT));
+		act.addParameter(new Parameter(IpConnection.ATTR_IO_ENGINE, ValueType.makeEnum(Util.enumNames(IoEngine.class)),
+				new Value(IoEngine.BLOCKING.toString())).setDescription(IpConnection.DESCRIPTION_IO_ENGINE));
 
 		act.addParameter(new Parameter(ModbusConnection.ATTR_TIMEOUT, ValueType.NUMBER, new Value(500)));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_ADAPTIVE_TIMEOUT, ValueType.BOOL, new Value(false))
+				.setDescription(ModbusConnection.DESCRIPTION_ADAPTIVE_TIMEOUT));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_MIN_TIMEOUT, ValueType.NUMBER,
+				new Value(ModbusConnection.DEFAULT_MIN_TIMEOUT)).setDescription(ModbusConnection.DESCRIPTION_MIN_TIMEOUT));
 		act.addParameter(new Parameter(ModbusConnection.ATTR_RETRIES, ValueType.NUMBER, new Value(2)));
 		act.addParameter(new Parameter(ModbusConnection.ATTR_MAX_READ_BIT_COUNT, ValueType.NUMBER, new Value(2000)));
 		act.addParameter(
@@ -205,6 +271,10 @@ public class ModbusLink {
 		act.addParameter(new Parameter(ModbusConnection.ATTR_DISCARD_DATA_DELAY, ValueType.NUMBER, new Value(0)));
 		act.addParameter(
 				new Parameter(ModbusConnection.ATTR_USE_MULTIPLE_WRITE_COMMAND, ValueType.makeEnum(ModbusConnection.MULTIPLE_WRITE_COMMAND_OPTIONS), new Value(ModbusConnection.MULTIPLE_WRITE_COMMAND_DEFAULT)));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_CONNECT_ON_SUBSCRIBE, ValueType.BOOL, new Value(false))
+				.setDescription(ModbusConnection.DESCRIPTION_CONNECT_ON_SUBSCRIBE));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_IDLE_CLOSE_DELAY, ValueType.NUMBER,
+				new Value(ModbusConnection.DEFAULT_IDLE_CLOSE_DELAY)).setDescription(ModbusConnection.DESCRIPTION_IDLE_CLOSE_DELAY));
 
 		return act;
 	}
@@ -233,15 +303,24 @@ public class ModbusLink {
 		act.addParameter(new Parameter(SerialConn.ATTR_PARITY, ValueType.makeEnum(Util.enumNames(ParityType.class))));
 
 		act.addParameter(new Parameter(ModbusConnection.ATTR_TIMEOUT, ValueType.NUMBER, new Value(500)));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_ADAPTIVE_TIMEOUT, ValueType.BOOL, new Value(false))
+				.setDescription(ModbusConnection.DESCRIPTION_ADAPTIVE_TIMEOUT));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_MIN_TIMEOUT, ValueType.NUMBER,
+				new Value(ModbusConnection.DEFAULT_MIN_TIMEOUT)).setDescription(ModbusConnection.DESCRIPTION_MIN_TIMEOUT));
 		act.addParameter(new Parameter(ModbusConnection.ATTR_RETRIES, ValueType.NUMBER, new Value(2)));
 		act.addParameter(new Parameter(ModbusConnection.ATTR_MAX_READ_BIT_COUNT, ValueType.NUMBER, new Value(2000)));
 		act.addParameter(
 				new Parameter(ModbusConnection.ATTR_MAX_READ_REGISTER_COUNT, ValueType.NUMBER, new Value(125)));
 		act.addParameter(
 				new Parameter(ModbusConnection.ATTR_MAX_WRITE_REGISTER_COUNT, ValueType.NUMBER, new Value(120)));
-		act.addParameter(new Parameter(ModbusConnection.ATTR_DISCARD_DATA_DELAY, ValueType.NUMBER, new Value(0)));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_DISCARD_DATA_DELAY, ValueType.NUMBER, new Value(0))
+				.setDescription(SerialConn.DESCRIPTION_DISCARD_DATA_DELAY));
 		act.addParameter(
 				new Parameter(ModbusConnection.ATTR_USE_MULTIPLE_WRITE_COMMAND, ValueType.makeEnum(ModbusConnection.MULTIPLE_WRITE_COMMAND_OPTIONS), new Value(ModbusConnection.MULTIPLE_WRITE_COMMAND_DEFAULT)));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_CONNECT_ON_SUBSCRIBE, ValueType.BOOL, new Value(false))
+				.setDescription(ModbusConnection.DESCRIPTION_CONNECT_ON_SUBSCRIBE));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_IDLE_CLOSE_DELAY, ValueType.NUMBER,
+				new Value(ModbusConnection.DEFAULT_IDLE_CLOSE_DELAY)).setDescription(ModbusConnection.DESCRIPTION_IDLE_CLOSE_DELAY));
 		return act;
 	}
 
@@ -326,9 +405,16 @@ public class ModbusLink {
 		}
 	}
 
-	private void restoreLastSession() {
+	/**
+	 * Rebuilds the node tree of the last session, without opening any
+	 * connection.
+	 *
+	 * @return the connections to open
+	 */
+	private List<ModbusConnection> restoreLastSession() {
+		List<ModbusConnection> restored = new ArrayList<>();
 		if (node.getChildren() == null)
-			return;
+			return restored;
 
 		Map<String, Node> children = node.getChildren();
 		for (Node child : children.values()) {
@@ -387,12 +473,14 @@ public class ModbusLink {
 
 				if (host != null && port != null) {
 					IpConnection ipConn = new IpConnection(getLink(), child);
-					ipConn.restoreLastSession();
+					ipConn.restoreNodes();
+					restored.add(ipConn);
 				} else if (transType != null && commPortId != null && baudRate != null && dataBits != null
 						&& stopBits != null && parity != null && maxrbc != null && maxrrc != null && maxwrc != null
 						&& ddd != null && mw != null && timeout != null && retries != null) {
 					SerialConn sc = new SerialConn(getLink(), child);
-					sc.restoreLastSession();
+					sc.restoreNodes();
+					restored.add(sc);
 				} else {
 					node.removeChild(child, false);
 				}
@@ -417,21 +505,21 @@ public class ModbusLink {
 				if (suppressDuration == null) {
 					child.setAttribute(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, new Value(60000));
 				}
+				Value maxGap = child.getAttribute(ModbusConnection.ATTR_MAX_READ_GAP);
+				if (maxGap == null) {
+					child.setAttribute(ModbusConnection.ATTR_MAX_READ_GAP, new Value(-1));
+				}
 
 				if (transType != null && host != null && port != null && maxrbc != null && maxrrc != null
 						&& maxwrc != null && ddd != null && mw != null && slaveId != null && interval != null
 						&& timeout != null && retries != null) {
 
 					String hostName = host + ":" + port;
-					IpConnectionWithDevice conn;
-					if (hostToConnection.containsKey(hostName)) {
-						conn = hostToConnection.get(hostName);
-						conn.addSlave(child);
-					} else {
-						conn = new IpConnectionWithDevice(getLink(), child);
-						hostToConnection.put(hostName, conn);
-						conn.restoreLastSession();
-						conn.addSlave(child);
+					IpConnectionWithDevice conn = getGatewayConnection(hostName, child);
+					boolean opened = conn.slaves.isEmpty();
+					conn.addSlave(child);
+					if (opened) {
+						restored.add(conn);
 					}
 				}
 			} else if (restype.getString().equals(EditableFolder.ATTRIBUTE_RESTORE_EDITABLE_FOLDER)) {
@@ -443,6 +531,7 @@ public class ModbusLink {
 				}
 			}
 		}
+		return restored;
 	}
 
 	private class AddSerialConnectionHandler implements Handler<ActionResult> {
@@ -473,6 +562,14 @@ public class ModbusLink {
 			int ddd = event.getParameter(ModbusConnection.ATTR_DISCARD_DATA_DELAY, ValueType.NUMBER).getNumber()
 					.intValue();
 			String mw = event.getParameter(ModbusConnection.ATTR_USE_MULTIPLE_WRITE_COMMAND).getString();
+			boolean adaptiveTimeout = event.getParameter(ModbusConnection.ATTR_ADAPTIVE_TIMEOUT, new Value(false))
+					.getBool();
+			int minTimeout = event.getParameter(ModbusConnection.ATTR_MIN_TIMEOUT,
+					new Value(ModbusConnection.DEFAULT_MIN_TIMEOUT)).getNumber().intValue();
+			boolean connectOnSubscribe = event.getParameter(ModbusConnection.ATTR_CONNECT_ON_SUBSCRIBE, new Value(false))
+					.getBool();
+			int idleCloseDelay = event.getParameter(ModbusConnection.ATTR_IDLE_CLOSE_DELAY,
+					new Value(ModbusConnection.DEFAULT_IDLE_CLOSE_DELAY)).getNumber().intValue();
 
 			Node snode = node.createChild(name, true).build();
 			snode.setAttribute(ModbusConnection.ATTR_TRANSPORT_TYPE, new Value(transtype));
@@ -489,6 +586,10 @@ public class ModbusLink {
 			snode.setAttribute(ModbusConnection.ATTR_MAX_WRITE_REGISTER_COUNT, new Value(maxwrc));
 			snode.setAttribute(ModbusConnection.ATTR_DISCARD_DATA_DELAY, new Value(ddd));
 			snode.setAttribute(ModbusConnection.ATTR_USE_MULTIPLE_WRITE_COMMAND, new Value(mw));
+			snode.setAttribute(ModbusConnection.ATTR_ADAPTIVE_TIMEOUT, new Value(adaptiveTimeout));
+			snode.setAttribute(ModbusConnection.ATTR_MIN_TIMEOUT, new Value(minTimeout));
+			snode.setAttribute(ModbusConnection.ATTR_CONNECT_ON_SUBSCRIBE, new Value(connectOnSubscribe));
+			snode.setAttribute(ModbusConnection.ATTR_IDLE_CLOSE_DELAY, new Value(idleCloseDelay));
 
 			SerialConn conn = new SerialConn(getLink(), snode);
 			conn.init();
@@ -501,8 +602,11 @@ public class ModbusLink {
 
 			String host;
 			int port;
+			int maxInFlight;
+			IoEngine ioEngine;
 
-			int timeout, retries, maxrbc, maxrrc, maxwrc, ddd;
+			int timeout, retries, maxrbc, maxrrc, maxwrc, ddd, minTimeout, idleCloseDelay;
+			boolean adaptiveTimeout, connectOnSubscribe;
 			String mw;
 			String transtype;
 			String name = event.getParameter(ModbusConnection.ATTR_CONNECTION_NAME, ValueType.STRING).getString();
@@ -511,6 +615,9 @@ public class ModbusLink {
 			transtype = event.getParameter(ModbusConnection.ATTR_TRANSPORT_TYPE).getString();
 			host = event.getParameter(IpConnection.ATTR_HOST, ValueType.STRING).getString();
 			port = event.getParameter(IpConnection.ATTR_PORT, ValueType.NUMBER).getNumber().intValue();
+			maxInFlight = event.getParameter(IpConnection.ATTR_MAX_IN_FLIGHT, new Value(1)).getNumber().intValue();
+			ioEngine = IpConnection.parseIoEngine(
+					event.getParameter(IpConnection.ATTR_IO_ENGINE, new Value(IoEngine.BLOCKING.toString())).getString());
 
 			timeout = event.getParameter(ModbusConnection.ATTR_TIMEOUT, ValueType.NUMBER).getNumber().intValue();
 			retries = event.getParameter(ModbusConnection.ATTR_RETRIES, ValueType.NUMBER).getNumber().intValue();
@@ -522,11 +629,20 @@ public class ModbusLink {
 					.intValue();
 			ddd = event.getParameter(ModbusConnection.ATTR_DISCARD_DATA_DELAY, ValueType.NUMBER).getNumber().intValue();
 			mw = event.getParameter(ModbusConnection.ATTR_USE_MULTIPLE_WRITE_COMMAND).getString();
+			adaptiveTimeout = event.getParameter(ModbusConnection.ATTR_ADAPTIVE_TIMEOUT, new Value(false)).getBool();
+			minTimeout = event.getParameter(ModbusConnection.ATTR_MIN_TIMEOUT,
+					new Value(ModbusConnection.DEFAULT_MIN_TIMEOUT)).getNumber().intValue();
+			connectOnSubscribe = event.getParameter(ModbusConnection.ATTR_CONNECT_ON_SUBSCRIBE, new Value(false))
+					.getBool();
+			idleCloseDelay = event.getParameter(ModbusConnection.ATTR_IDLE_CLOSE_DELAY,
+					new Value(ModbusConnection.DEFAULT_IDLE_CLOSE_DELAY)).getNumber().intValue();
 			snode = node.createChild(name, true).build();
 
 			snode.setAttribute(ModbusConnection.ATTR_TRANSPORT_TYPE, new Value(transtype));
 			snode.setAttribute(IpConnection.ATTR_HOST, new Value(host));
 			snode.setAttribute(IpConnection.ATTR_PORT, new Value(port));
+			snode.setAttribute(IpConnection.ATTR_MAX_IN_FLIGHT, new Value(maxInFlight));
+			snode.setAttribute(IpConnection.ATTR_IO_ENGINE, new Value(ioEngine.toString()));
 
 			snode.setAttribute(ModbusConnection.ATTR_TIMEOUT, new Value(timeout));
 			snode.setAttribute(ModbusConnection.ATTR_RETRIES, new Value(retries));
@@ -535,6 +651,10 @@ public class ModbusLink {
 			snode.setAttribute(ModbusConnection.ATTR_MAX_WRITE_REGISTER_COUNT, new Value(maxwrc));
 			snode.setAttribute(ModbusConnection.ATTR_DISCARD_DATA_DELAY, new Value(ddd));
 			snode.setAttribute(ModbusConnection.ATTR_USE_MULTIPLE_WRITE_COMMAND, new Value(mw));
+			snode.setAttribute(ModbusConnection.ATTR_ADAPTIVE_TIMEOUT, new Value(adaptiveTimeout));
+			snode.setAttribute(ModbusConnection.ATTR_MIN_TIMEOUT, new Value(minTimeout));
+			snode.setAttribute(ModbusConnection.ATTR_CONNECT_ON_SUBSCRIBE, new Value(connectOnSubscribe));
+			snode.setAttribute(ModbusConnection.ATTR_IDLE_CLOSE_DELAY, new Value(idleCloseDelay));
 
 			ModbusConnection conn = new IpConnection(getLink(), snode);
 			conn.init();
@@ -557,6 +677,8 @@ public class ModbusLink {
 			transtype = event.getParameter(ModbusConnection.ATTR_TRANSPORT_TYPE).getString();
 			host = event.getParameter(IpConnection.ATTR_HOST, ValueType.STRING).getString();
 			port = event.getParameter(IpConnection.ATTR_PORT, ValueType.NUMBER).getNumber().intValue();
+			int gatewayConnections = event.getParameter(IpConnectionWithDevice.ATTR_GATEWAY_CONNECTIONS, new Value(1))
+					.getNumber().intValue();
 
 			timeout = event.getParameter(ModbusConnection.ATTR_TIMEOUT, ValueType.NUMBER).getNumber().intValue();
 			retries = event.getParameter(ModbusConnection.ATTR_RETRIES, ValueType.NUMBER).getNumber().intValue();
@@ -578,10 +700,14 @@ public class ModbusLink {
 			boolean contig = event.getParameter(ModbusConnection.ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, ValueType.BOOL)
 					.getBool();
 			long suppressDuration = (long) (event.getParameter(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, ValueType.NUMBER).getNumber().doubleValue() * 1000);
+			int maxGap = event.getParameter(ModbusConnection.ATTR_MAX_READ_GAP, ValueType.NUMBER).getNumber().intValue();
+			int coalescingWindow = event.getParameter(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW, new Value(0))
+					.getNumber().intValue();
 
 			snode.setAttribute(ModbusConnection.ATTR_TRANSPORT_TYPE, new Value(transtype));
 			snode.setAttribute(IpConnection.ATTR_HOST, new Value(host));
 			snode.setAttribute(IpConnection.ATTR_PORT, new Value(port));
+			snode.setAttribute(IpConnectionWithDevice.ATTR_GATEWAY_CONNECTIONS, new Value(gatewayConnections));
 
 			snode.setAttribute(ModbusConnection.ATTR_SLAVE_ID, new Value(slaveid));
 			snode.setAttribute(ModbusConnection.ATTR_POLLING_INTERVAL, new Value(interval));
@@ -589,6 +715,8 @@ public class ModbusLink {
 			snode.setAttribute(ModbusConnection.ATTR_USE_BATCH_POLLING, new Value(batchpoll));
 			snode.setAttribute(ModbusConnection.ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, new Value(contig));
 			snode.setAttribute(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, new Value(suppressDuration));
+			snode.setAttribute(ModbusConnection.ATTR_MAX_READ_GAP, new Value(maxGap));
+			snode.setAttribute(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW, new Value(coalescingWindow));
 
 			snode.setAttribute(ModbusConnection.ATTR_TIMEOUT, new Value(timeout));
 			snode.setAttribute(ModbusConnection.ATTR_RETRIES, new Value(retries));
@@ -599,16 +727,74 @@ public class ModbusLink {
 			snode.setAttribute(ModbusConnection.ATTR_USE_MULTIPLE_WRITE_COMMAND, new Value(mw));
 
 			String hostName = host + ":" + port;
-			IpConnectionWithDevice conn;
-			if (hostToConnection.containsKey(hostName)) {
-				conn = hostToConnection.get(hostName);
-				conn.addSlave(snode);
-			} else {
-				conn = new IpConnectionWithDevice(getLink(), snode);
-				hostToConnection.put(hostName, conn);
+			IpConnectionWithDevice conn = getGatewayConnection(hostName, snode);
+			if (conn.slaves.isEmpty()) {
 				conn.init();
-				conn.addSlave(snode);
 			}
+			conn.addSlave(snode);
+		}
+	}
+
+	/**
+	 * Picks the connection a legacy device polls through, out of the pool of
+	 * connections to its host. A device goes with the other devices of its
+	 * slave id, as the gateway serves those one request at a time anyway.
+	 * Otherwise it gets a new connection while the pool is smaller than the
+	 * devices of the host ask for, or else the connection with the fewest
+	 * devices. That is a count, not how busy a connection is, as devices are
+	 * placed while the link starts, before any of them has been polled.
+	 *
+	 * @return the connection, without devices if it is new
+	 */
+	private IpConnectionWithDevice getGatewayConnection(String hostName, Node deviceNode) {
+		List<IpConnectionWithDevice> pool = hostToConnections.computeIfAbsent(hostName, k -> new ArrayList<>());
+		// connections whose last device was removed
+		pool.removeIf(conn -> !connections.contains(conn));
+
+		int slaveId = Util.getIntValue(deviceNode.getAttribute(ModbusConnection.ATTR_SLAVE_ID));
+		int size = IpConnectionWithDevice.getGatewayConnections(deviceNode);
+		IpConnectionWithDevice fewestDevices = null;
+		for (IpConnectionWithDevice conn : pool) {
+			if (conn.hasSlaveId(slaveId)) {
+				return conn;
+			}
+			size = Math.max(size, conn.getGatewayConnections());
+			if (fewestDevices == null || conn.slaves.size() < fewestDevices.slaves.size()) {
+				fewestDevices = conn;
+			}
+		}
+		if (fewestDevices != null && pool.size() >= size) {
+			return fewestDevices;
+		}
+		IpConnectionWithDevice conn = new IpConnectionWithDevice(getLink(), deviceNode);
+		pool.add(conn);
+		return conn;
+	}
+
+	/**
+	 * @return the connections to the host of a legacy connection, the
+	 *         connection itself included
+	 */
+	List<IpConnectionWithDevice> getGatewayPool(IpConnectionWithDevice conn) {
+		for (List<IpConnectionWithDevice> pool : hostToConnections.values()) {
+			if (pool.contains(conn)) {
+				pool.removeIf(c -> !connections.contains(c));
+				return new ArrayList<>(pool);
+			}
+		}
+		List<IpConnectionWithDevice> pool = new ArrayList<>();
+		pool.add(conn);
+		return pool;
+	}
+
+	/**
+	 * Files the pool of connections to a host under its new address, after an
+	 * edit moved its devices there.
+	 */
+	void moveGatewayPool(String oldHostName, String newHostName) {
+		List<IpConnectionWithDevice> pool = hostToConnections.remove(oldHostName);
+		if (pool != null) {
+			hostToConnections.computeIfAbsent(newHostName, k -> new ArrayList<>()).addAll(pool);
 		}
 	}
 
@@ -636,22 +822,28 @@ public class ModbusLink {
 
 	private void handleSub(final SlaveNode slave, final Node event) {
 		slave.addToSub(event);
-		if (futures.containsKey(slave)) {
-			return;
-		}
-		ScheduledThreadPoolExecutor stpe = slave.getDaemonThreadPool();
-		ScheduledFuture<?> future = stpe.scheduleWithFixedDelay(slave::readPoints, 0, slave.intervalInMs, TimeUnit.MILLISECONDS);
-		futures.put(slave, future);
+		schedulePolling(slave);
+		slave.conn.subscribed();
 	}
 
 	private void handleUnsub(SlaveNode slave, Node event) {
 		slave.removeFromSub(event);
+		schedulePolling(slave);
+		slave.conn.unsubscribed();
+	}
+
+	/**
+	 * Starts, stops or re-times the polling of a device so that it ticks at
+	 * a rate every poll class that has subscribed points comes due on.
+	 */
+	synchronized void schedulePolling(SlaveNode slave) {
 		if (slave.noneSubscribed()) {
-			ScheduledFuture<?> future = futures.remove(slave);
-			if (future != null) {
-				future.cancel(false);
-			}
+			pollScheduler.cancel(slave);
+			return;
 		}
+		long tick = slave.getPollTick();
+		slave.pollTickInMs = tick;
+		pollScheduler.schedule(slave, tick);
 	}
 
 	void setupPoint(Node child, final SlaveFolder slave) {
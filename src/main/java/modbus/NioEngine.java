@@ -0,0 +1,144 @@
+package modbus;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * The selector threads behind every NioModbusMaster.
+ *
+ * A handful of event loops serve all NIO connections of the link. Each master
+ * is pinned to one loop, and its channel and request state is only ever
+ * touched from that loop's thread, so none of it needs locking. The number of
+ * loops can be set with the modbus.nioThreads system property.
+ *
+ * */
+final class NioEngine {
+	private static final Logger LOGGER;
+
+	private static final String PROP_NIO_THREADS = "modbus.nioThreads";
+	// how often in-flight requests are checked for timeouts
+	static final long TIMER_RESOLUTION_MS = 10;
+
+	private static NioEngine instance;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(NioEngine.class);
+	}
+
+	private final EventLoop[] loops;
+	private final AtomicInteger next = new AtomicInteger();
+
+	private NioEngine(int threads) throws IOException {
+		loops = new EventLoop[threads];
+		for (int i = 0; i < threads; i++) {
+			loops[i] = new EventLoop("Modbus NIO loop " + (i + 1));
+		}
+	}
+
+	static synchronized NioEngine get() throws IOException {
+		if (instance == null) {
+			int cores = Runtime.getRuntime().availableProcessors();
+			int threads = Integer.getInteger(PROP_NIO_THREADS, Math.max(1, Math.min(4, cores / 2)));
+			instance = new NioEngine(threads);
+		}
+		return instance;
+	}
+
+	static synchronized void shutdown() {
+		if (instance != null) {
+			for (EventLoop loop : instance.loops) {
+				loop.close();
+			}
+			instance = null;
+		}
+	}
+
+	EventLoop nextLoop() {
+		return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+	}
+
+	static class EventLoop {
+		private final Selector selector;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		// masters with requests in flight, loop thread only
+		private final Set<NioModbusMaster> timed = new HashSet<>();
+		private final Thread thread;
+		private volatile boolean closed;
+
+		private EventLoop(String name) throws IOException {
+			selector = Selector.open();
+			thread = new Thread(this::run, name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		Selector selector() {
+			return selector;
+		}
+
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		void watch(NioModbusMaster master) {
+			timed.add(master);
+		}
+
+		void unwatch(NioModbusMaster master) {
+			timed.remove(master);
+		}
+
+		private void close() {
+			closed = true;
+			selector.wakeup();
+		}
+
+		private void run() {
+			long nextTimerCheck = System.currentTimeMillis() + TIMER_RESOLUTION_MS;
+			while (!closed) {
+				try {
+					long wait = Math.max(1, nextTimerCheck - System.currentTimeMillis());
+					selector.select(wait);
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						((NioModbusMaster) key.attachment()).handle(key);
+					}
+
+					Runnable task;
+					while ((task = tasks.poll()) != null) {
+						task.run();
+					}
+
+					long now = System.currentTimeMillis();
+					if (now >= nextTimerCheck) {
+						for (NioModbusMaster master : timed.toArray(new NioModbusMaster[0])) {
+							master.checkTimeouts(now);
+						}
+						nextTimerCheck = now + TIMER_RESOLUTION_MS;
+					}
+				} catch (Exception e) {
+					LOGGER.warn("error in " + thread.getName() + ": " + e.getMessage());
+					LOGGER.debug("error: ", e);
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				LOGGER.debug("error closing selector: ", e);
+			}
+		}
+	}
+}
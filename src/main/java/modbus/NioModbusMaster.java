@@ -0,0 +1,448 @@
+package modbus;
+
+import com.serotonin.modbus4j.ModbusMaster;
+import com.serotonin.modbus4j.exception.ModbusInitException;
+import com.serotonin.modbus4j.exception.ModbusTransportException;
+import com.serotonin.modbus4j.msg.ModbusRequest;
+import com.serotonin.modbus4j.msg.ModbusResponse;
+import com.serotonin.modbus4j.msg.ReadCoilsRequest;
+import com.serotonin.modbus4j.msg.ReadDiscreteInputsRequest;
+import com.serotonin.modbus4j.msg.ReadHoldingRegistersRequest;
+import com.serotonin.modbus4j.msg.ReadInputRegistersRequest;
+import com.serotonin.modbus4j.sero.util.queue.ByteQueue;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * A Modbus TCP or UDP master that runs on one of the NioEngine's event loops
+ * instead of holding a blocking socket and a thread per request.
+ *
+ * Both transports use the MBAP header, so responses are matched by transaction
+ * id. Up to maxInFlight requests are outstanding, the rest wait in order,
+ * except that writes and other requests that aren't reads go ahead of the
+ * reads that haven't been sent yet, so they don't wait out a whole poll.
+ * Timeouts and retries are handled by the event loop, so sendAsync() never
+ * blocks the caller and sendImpl() only blocks its own thread. How long a
+ * request may take is up to the connection's AdaptiveTimeouts, sendImpl()
+ * only waits for so long in case the loop never answers at all.
+ *
+ * Everything below the volatile flag is only touched from the loop thread.
+ *
+ * */
+class NioModbusMaster extends ModbusMaster {
+	private static final Logger LOGGER;
+
+	// transaction id, protocol id and length; the unit id is counted in the length
+	private static final int MBAP_PREFIX_LENGTH = 6;
+	// unit id plus the largest PDU
+	private static final int MAX_BODY_LENGTH = 254;
+	private static final int READ_BUFFER_SIZE = 4096;
+	// on top of the timeouts of all attempts, before a blocked sendImpl() gives up
+	private static final long SEND_MARGIN_MS = 1000;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(NioModbusMaster.class);
+	}
+
+	private final IpTransportType transport;
+	private final String host;
+	private final int port;
+	private final int maxInFlight;
+	private final AdaptiveTimeouts timeouts;
+	// set by init(), which may run on another thread than the sends
+	private volatile NioEngine.EventLoop loop;
+
+	private volatile boolean connected;
+
+	private SelectableChannel channel;
+	private SelectionKey key;
+	private CompletableFuture<Void> connecting;
+	private final ArrayDeque<Request> queued = new ArrayDeque<>();
+	private final ArrayDeque<Request> urgent = new ArrayDeque<>();
+	private final Map<Integer, Request> inFlight = new HashMap<>();
+	private final ArrayDeque<ByteBuffer> writes = new ArrayDeque<>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private int nextTransactionId;
+
+	NioModbusMaster(IpTransportType transport, String host, int port, int maxInFlight, AdaptiveTimeouts timeouts) {
+		this.transport = transport;
+		this.host = host;
+		this.port = port;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.timeouts = timeouts;
+	}
+
+	@Override
+	public void init() throws ModbusInitException {
+		// resolved here so a slow lookup doesn't stall the other connections of the loop
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		if (address.isUnresolved()) {
+			throw new ModbusInitException("unable to resolve " + host);
+		}
+		try {
+			loop = NioEngine.get().nextLoop();
+		} catch (IOException e) {
+			throw new ModbusInitException(e);
+		}
+
+		CompletableFuture<Void> opened = new CompletableFuture<>();
+		loop.execute(() -> open(address, opened));
+		try {
+			opened.get(getTimeout(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			loop.execute(() -> fail(new IOException("connect timed out")));
+			throw new ModbusInitException("timed out connecting to " + host + ":" + port);
+		} catch (ExecutionException e) {
+			throw new ModbusInitException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ModbusInitException(e);
+		}
+	}
+
+	@Override
+	public boolean isInitialized() {
+		return connected;
+	}
+
+	@Override
+	public void destroy() {
+		connected = false;
+		initialized = false;
+		if (loop != null) {
+			loop.execute(() -> fail(new IOException("connection closed")));
+		}
+	}
+
+	/**
+	 * Queues a request on the event loop. The future completes with the
+	 * response, or exceptionally once the retries are used up or the
+	 * connection is lost.
+	 */
+	CompletableFuture<ModbusResponse> sendAsync(ModbusRequest request) {
+		Request req = new Request(request, getRetries());
+		if (!connected) {
+			req.future.completeExceptionally(
+					new ModbusTransportException("not connected to " + host + ":" + port, req.slaveId));
+		} else {
+			loop.execute(() -> enqueue(req));
+		}
+		return req.future;
+	}
+
+	@Override
+	public ModbusResponse sendImpl(ModbusRequest request) throws ModbusTransportException {
+		CompletableFuture<ModbusResponse> future = sendAsync(request);
+		try {
+			// the event loop times the request out, this is only a backstop
+			return future.get((long) getTimeout() * (getRetries() + 1) + SEND_MARGIN_MS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.completeExceptionally(e);
+			throw new ModbusTransportException("no answer from the event loop", request.getSlaveId());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ModbusTransportException) {
+				throw (ModbusTransportException) e.getCause();
+			}
+			throw new ModbusTransportException(e.getCause(), request.getSlaveId());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ModbusTransportException(e, request.getSlaveId());
+		}
+	}
+
+	private void open(InetSocketAddress address, CompletableFuture<Void> opened) {
+		try {
+			if (transport == IpTransportType.UDP) {
+				DatagramChannel dc = DatagramChannel.open();
+				channel = dc;
+				dc.configureBlocking(false);
+				dc.connect(address);
+				key = dc.register(loop.selector(), SelectionKey.OP_READ, this);
+				connecting = opened;
+				connectionOpened();
+			} else {
+				SocketChannel sc = SocketChannel.open();
+				channel = sc;
+				sc.configureBlocking(false);
+				sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				connecting = opened;
+				if (sc.connect(address)) {
+					key = sc.register(loop.selector(), SelectionKey.OP_READ, this);
+					connectionOpened();
+				} else {
+					key = sc.register(loop.selector(), SelectionKey.OP_CONNECT, this);
+				}
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void connectionOpened() {
+		connected = true;
+		initialized = true;
+		if (connecting != null) {
+			connecting.complete(null);
+			connecting = null;
+		}
+	}
+
+	void handle(SelectionKey key) {
+		try {
+			if (key.isConnectable() && ((SocketChannel) channel).finishConnect()) {
+				key.interestOps(SelectionKey.OP_READ);
+				connectionOpened();
+			}
+			if (key.isValid() && key.isReadable()) {
+				read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				flush();
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void enqueue(Request req) {
+		if (!connected) {
+			req.future.completeExceptionally(
+					new ModbusTransportException("not connected to " + host + ":" + port, req.slaveId));
+			return;
+		}
+		(req.urgent ? urgent : queued).add(req);
+		try {
+			pump();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void pump() throws IOException {
+		while (inFlight.size() < maxInFlight) {
+			Request req = urgent.isEmpty() ? queued.poll() : urgent.poll();
+			if (req == null) {
+				return;
+			}
+			transmit(req);
+		}
+	}
+
+	private void transmit(Request req) throws IOException {
+		int id;
+		do {
+			id = nextTransactionId++ & 0xffff;
+		} while (inFlight.containsKey(id));
+		req.sentNanos = System.nanoTime();
+		req.deadline = System.currentTimeMillis() + timeouts.getTimeout(req.slaveId);
+		if (inFlight.isEmpty()) {
+			loop.watch(this);
+		}
+		inFlight.put(id, req);
+
+		ByteBuffer frame = ByteBuffer.allocate(MBAP_PREFIX_LENGTH + req.body.length);
+		frame.putShort((short) id).putShort((short) 0).putShort((short) req.body.length).put(req.body);
+		frame.flip();
+		if (transport == IpTransportType.UDP) {
+			// a datagram that doesn't go out is simply timed out and retried
+			((DatagramChannel) channel).write(frame);
+		} else {
+			writes.add(frame);
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		SocketChannel sc = (SocketChannel) channel;
+		while (!writes.isEmpty()) {
+			ByteBuffer buffer = writes.peek();
+			sc.write(buffer);
+			if (buffer.hasRemaining()) {
+				break;
+			}
+			writes.poll();
+		}
+		key.interestOps(writes.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	private void read() throws IOException {
+		if (transport == IpTransportType.UDP) {
+			readBuffer.clear();
+			if (((DatagramChannel) channel).read(readBuffer) <= 0) {
+				return;
+			}
+			readBuffer.flip();
+			if (!parseFrame()) {
+				LOGGER.debug("dropping malformed datagram from " + host + ":" + port);
+			}
+			readBuffer.clear();
+			return;
+		}
+
+		if (((SocketChannel) channel).read(readBuffer) < 0) {
+			throw new IOException("connection closed by peer");
+		}
+		readBuffer.flip();
+		while (parseFrame()) {
+			// every complete frame in the buffer
+		}
+		readBuffer.compact();
+	}
+
+	/**
+	 * @return false if the buffer doesn't start with a complete frame, which
+	 *         is then left in place
+	 */
+	private boolean parseFrame() throws IOException {
+		int pos = readBuffer.position();
+		if (readBuffer.remaining() < MBAP_PREFIX_LENGTH) {
+			return false;
+		}
+		int length = readBuffer.getShort(pos + 4) & 0xffff;
+		if (length < 2 || length > MAX_BODY_LENGTH) {
+			throw new IOException("invalid MBAP length " + length);
+		}
+		if (readBuffer.remaining() < MBAP_PREFIX_LENGTH + length) {
+			return false;
+		}
+		int id = readBuffer.getShort(pos) & 0xffff;
+		byte[] body = new byte[length];
+		readBuffer.position(pos + MBAP_PREFIX_LENGTH);
+		readBuffer.get(body);
+		received(id, body);
+		return true;
+	}
+
+	private void received(int id, byte[] body) throws IOException {
+		Request req = inFlight.remove(id);
+		if (req == null) {
+			LOGGER.debug("dropping response to unknown or expired transaction " + id);
+			return;
+		}
+		if (inFlight.isEmpty()) {
+			loop.unwatch(this);
+		}
+		timeouts.responded(req.slaveId, System.nanoTime() - req.sentNanos);
+		try {
+			req.future.complete(ModbusResponse.createModbusResponse(new ByteQueue(body)));
+		} catch (ModbusTransportException e) {
+			req.future.completeExceptionally(e);
+		}
+		pump();
+	}
+
+	void checkTimeouts(long now) {
+		List<Request> expired = null;
+		Iterator<Request> it = inFlight.values().iterator();
+		while (it.hasNext()) {
+			Request req = it.next();
+			if (req.deadline <= now) {
+				it.remove();
+				if (expired == null) {
+					expired = new ArrayList<>();
+				}
+				expired.add(req);
+			}
+		}
+		if (expired == null) {
+			return;
+		}
+		if (inFlight.isEmpty()) {
+			loop.unwatch(this);
+		}
+		for (Request req : expired) {
+			timeouts.timedOut(req.slaveId);
+			if (req.retriesLeft-- > 0) {
+				// retried ahead of the requests that haven't been sent yet
+				(req.urgent ? urgent : queued).addFirst(req);
+			} else {
+				req.future.completeExceptionally(new ModbusTransportException("request timed out", req.slaveId));
+			}
+		}
+		try {
+			pump();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void fail(IOException e) {
+		if (connected) {
+			LOGGER.warn("connection to " + host + ":" + port + " lost: " + e.getMessage());
+		}
+		connected = false;
+		initialized = false;
+
+		if (key != null) {
+			key.cancel();
+			key = null;
+		}
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e1) {
+				LOGGER.debug("error closing channel: ", e1);
+			}
+			channel = null;
+		}
+		writes.clear();
+		readBuffer.clear();
+		loop.unwatch(this);
+
+		if (connecting != null) {
+			connecting.completeExceptionally(e);
+			connecting = null;
+		}
+		ModbusTransportException cause = new ModbusTransportException(e);
+		for (Request req : inFlight.values()) {
+			req.future.completeExceptionally(cause);
+		}
+		inFlight.clear();
+		for (Request req : urgent) {
+			req.future.completeExceptionally(cause);
+		}
+		urgent.clear();
+		for (Request req : queued) {
+			req.future.completeExceptionally(cause);
+		}
+		queued.clear();
+	}
+
+	private static class Request {
+		final int slaveId;
+		final byte[] body;
+		final boolean urgent;
+		final CompletableFuture<ModbusResponse> future = new CompletableFuture<>();
+		int retriesLeft;
+		long deadline;
+		long sentNanos;
+
+		Request(ModbusRequest request, int retries) {
+			this.slaveId = request.getSlaveId();
+			ByteQueue queue = new ByteQueue();
+			request.write(queue);
+			this.body = queue.popAll();
+			this.urgent = !(request instanceof ReadCoilsRequest || request instanceof ReadDiscreteInputsRequest
+					|| request instanceof ReadHoldingRegistersRequest || request instanceof ReadInputRegistersRequest);
+			this.retriesLeft = retries;
+		}
+	}
+}
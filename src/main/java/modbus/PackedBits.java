@@ -0,0 +1,78 @@
+package modbus;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.json.JsonArray;
+
+/*
+ * What was last published for a BOOLEAN point that reads a whole register
+ * rather than one of its bits. Such a point shows the register as the array of
+ * its 16 bits and, with its bit nodes option, as one BOOL child node per bit.
+ *
+ * Polls compare the raw register with the one last published, so a register
+ * that hasn't changed costs one int comparison instead of a new array, and only
+ * the bit nodes whose bit flipped get a new value.
+ *
+ * Only touched by the polls of the point's device, which never overlap.
+ *
+ * */
+class PackedBits {
+	static final int BITS = 16;
+
+	// by bit, null when the point has no bit nodes
+	private final Node[] bitNodes;
+	// the register last published, -1 before the first
+	private int word = -1;
+
+	PackedBits(Node[] bitNodes) {
+		this.bitNodes = bitNodes;
+	}
+
+	static String bitName(int bit) {
+		return "bit " + bit;
+	}
+
+	/**
+	 * @param word the register, as an unsigned 16-bit value
+	 */
+	boolean isChanged(int word) {
+		return word != this.word;
+	}
+
+	/**
+	 * Publishes the register on the point, and on the bit nodes whose bits
+	 * flipped since the last publish, or on all of them if refresh is set.
+	 */
+	void publish(Node pnode, int word, boolean refresh) {
+		JsonArray jarr = new JsonArray();
+		for (int i = 0; i < BITS; i++) {
+			jarr.add(isBitSet(word, i));
+		}
+		pnode.setValue(new Value(jarr));
+
+		int flipped = update(word, refresh);
+		if (bitNodes != null) {
+			for (int i = 0; i < BITS; i++) {
+				if (isBitSet(flipped, i)) {
+					bitNodes[i].setValue(new Value(isBitSet(word, i)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes the register as the one last published.
+	 *
+	 * @return a mask of the bits whose bit nodes need a new value, the ones
+	 *         that flipped, or all of them on the first publish or a refresh
+	 */
+	int update(int word, boolean refresh) {
+		int flipped = refresh || this.word < 0 ? 0xffff : word ^ this.word;
+		this.word = word;
+		return flipped;
+	}
+
+	private static boolean isBitSet(int num, int bit) {
+		return ((num >> bit) & 1) == 1;
+	}
+}
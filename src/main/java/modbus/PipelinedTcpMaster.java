@@ -0,0 +1,277 @@
+package modbus;
+
+import com.serotonin.modbus4j.ModbusMaster;
+import com.serotonin.modbus4j.exception.ModbusInitException;
+import com.serotonin.modbus4j.exception.ModbusTransportException;
+import com.serotonin.modbus4j.msg.ModbusRequest;
+import com.serotonin.modbus4j.msg.ModbusResponse;
+import com.serotonin.modbus4j.sero.util.queue.ByteQueue;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * A Modbus TCP master that keeps up to maxInFlight requests outstanding on one
+ * socket and matches the responses back by their MBAP transaction id, so a
+ * poll over a high-latency link costs about one round trip rather than one per
+ * request.
+ *
+ * Requests are written by the calling threads and a single reader thread
+ * completes them. submit() and await() let a caller put several requests on
+ * the wire before waiting for any of them, sendImpl() is the blocking form
+ * that the rest of modbus4j (getValue, setValue, pings) goes through.
+ *
+ * How long to wait for a response is up to the connection's AdaptiveTimeouts,
+ * the plain timeout only bounds the wait for a free slot.
+ *
+ * */
+class PipelinedTcpMaster extends ModbusMaster {
+	private static final Logger LOGGER;
+
+	// transaction id, protocol id and length; the unit id is counted in the length
+	private static final int MBAP_PREFIX_LENGTH = 6;
+	// unit id plus the largest PDU
+	private static final int MAX_BODY_LENGTH = 254;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(PipelinedTcpMaster.class);
+	}
+
+	private final String host;
+	private final int port;
+	private final int maxInFlight;
+	private final Semaphore window;
+	private final AdaptiveTimeouts timeouts;
+	private final ConcurrentMap<Integer, Transaction> pending = new ConcurrentHashMap<>();
+	private final AtomicInteger nextTransactionId = new AtomicInteger();
+
+	private final Object writeLock = new Object();
+	private volatile Socket socket;
+	private OutputStream out;
+	private volatile boolean connected;
+
+	PipelinedTcpMaster(String host, int port, int maxInFlight, AdaptiveTimeouts timeouts) {
+		this.host = host;
+		this.port = port;
+		this.maxInFlight = maxInFlight;
+		this.window = new Semaphore(maxInFlight);
+		this.timeouts = timeouts;
+	}
+
+	int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	@Override
+	public void init() throws ModbusInitException {
+		Socket s = new Socket();
+		try {
+			s.setTcpNoDelay(true);
+			s.connect(new InetSocketAddress(host, port), getTimeout());
+			out = s.getOutputStream();
+		} catch (IOException e) {
+			try {
+				s.close();
+			} catch (IOException ignored) {
+			}
+			throw new ModbusInitException(e);
+		}
+		socket = s;
+		connected = true;
+		initialized = true;
+
+		Thread reader = new Thread(() -> readLoop(s), "Modbus TCP reader " + host + ":" + port);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	@Override
+	public boolean isInitialized() {
+		return connected;
+	}
+
+	@Override
+	public void destroy() {
+		connected = false;
+		initialized = false;
+		Socket s = socket;
+		if (s != null) {
+			try {
+				s.close();
+			} catch (IOException e) {
+				LOGGER.debug("error closing socket: ", e);
+			}
+		}
+		failAll(new ModbusTransportException("connection closed"));
+	}
+
+	@Override
+	public ModbusResponse sendImpl(ModbusRequest request) throws ModbusTransportException {
+		return await(submit(request));
+	}
+
+	/**
+	 * Writes a request without waiting for its response. Blocks for up to the
+	 * timeout while the in-flight window is full.
+	 */
+	Transaction submit(ModbusRequest request) throws ModbusTransportException {
+		if (!connected) {
+			throw new ModbusTransportException("not connected to " + host + ":" + port, request.getSlaveId());
+		}
+		try {
+			if (!window.tryAcquire(getTimeout(), TimeUnit.MILLISECONDS)) {
+				throw new ModbusTransportException("no free transaction slot", request.getSlaveId());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ModbusTransportException(e, request.getSlaveId());
+		}
+
+		Transaction tx = new Transaction(request);
+		int id;
+		do {
+			id = nextTransactionId.getAndIncrement() & 0xffff;
+		} while (pending.putIfAbsent(id, tx) != null);
+		tx.id = id;
+
+		ByteQueue queue = new ByteQueue();
+		request.write(queue);
+		byte[] body = queue.popAll();
+		byte[] frame = new byte[MBAP_PREFIX_LENGTH + body.length];
+		frame[0] = (byte) (id >> 8);
+		frame[1] = (byte) id;
+		frame[4] = (byte) (body.length >> 8);
+		frame[5] = (byte) body.length;
+		System.arraycopy(body, 0, frame, MBAP_PREFIX_LENGTH, body.length);
+
+		try {
+			synchronized (writeLock) {
+				tx.sentNanos = System.nanoTime();
+				out.write(frame);
+				out.flush();
+			}
+		} catch (IOException e) {
+			abandon(tx);
+			connectionLost(e);
+			throw new ModbusTransportException(e, request.getSlaveId());
+		}
+		return tx;
+	}
+
+	/**
+	 * Waits for the response of a submitted request, re-sending it under a
+	 * new transaction id each time it times out, up to the retry count.
+	 */
+	ModbusResponse await(Transaction tx) throws ModbusTransportException {
+		int slaveId = tx.request.getSlaveId();
+		int retries = getRetries();
+		while (true) {
+			try {
+				return tx.response.get(timeouts.getTimeout(slaveId), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				abandon(tx);
+				timeouts.timedOut(slaveId);
+				if (retries-- <= 0) {
+					throw new ModbusTransportException("request timed out", tx.request.getSlaveId());
+				}
+				tx = submit(tx.request);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof ModbusTransportException) {
+					throw (ModbusTransportException) e.getCause();
+				}
+				throw new ModbusTransportException(e.getCause(), tx.request.getSlaveId());
+			} catch (InterruptedException e) {
+				abandon(tx);
+				Thread.currentThread().interrupt();
+				throw new ModbusTransportException(e, tx.request.getSlaveId());
+			}
+		}
+	}
+
+	/**
+	 * Gives up on a request, freeing its slot. A response that still arrives
+	 * for it is dropped.
+	 */
+	void abandon(Transaction tx) {
+		if (tx != null && pending.remove(tx.id, tx)) {
+			window.release();
+		}
+	}
+
+	private void readLoop(Socket s) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			byte[] prefix = new byte[MBAP_PREFIX_LENGTH];
+			while (connected) {
+				in.readFully(prefix);
+				int id = ((prefix[0] & 0xff) << 8) | (prefix[1] & 0xff);
+				int length = ((prefix[4] & 0xff) << 8) | (prefix[5] & 0xff);
+				if (length < 2 || length > MAX_BODY_LENGTH) {
+					throw new IOException("invalid MBAP length " + length);
+				}
+				byte[] body = new byte[length];
+				in.readFully(body);
+
+				Transaction tx = pending.remove(id);
+				if (tx == null) {
+					LOGGER.debug("dropping response to unknown or expired transaction " + id);
+					continue;
+				}
+				window.release();
+				timeouts.responded(tx.request.getSlaveId(), System.nanoTime() - tx.sentNanos);
+				try {
+					tx.response.complete(ModbusResponse.createModbusResponse(new ByteQueue(body)));
+				} catch (ModbusTransportException e) {
+					tx.response.completeExceptionally(e);
+				}
+			}
+		} catch (IOException e) {
+			if (connected) {
+				connectionLost(e);
+			}
+		}
+	}
+
+	private void connectionLost(IOException e) {
+		if (connected) {
+			LOGGER.warn("connection to " + host + ":" + port + " lost: " + e.getMessage());
+		}
+		connected = false;
+		initialized = false;
+		failAll(new ModbusTransportException(e));
+	}
+
+	private void failAll(ModbusTransportException e) {
+		for (Map.Entry<Integer, Transaction> entry : pending.entrySet()) {
+			if (pending.remove(entry.getKey(), entry.getValue())) {
+				window.release();
+				entry.getValue().response.completeExceptionally(e);
+			}
+		}
+	}
+
+	static class Transaction {
+		private final ModbusRequest request;
+		private final CompletableFuture<ModbusResponse> response = new CompletableFuture<>();
+		private volatile int id;
+		private volatile long sentNanos;
+
+		private Transaction(ModbusRequest request) {
+			this.request = request;
+		}
+	}
+}
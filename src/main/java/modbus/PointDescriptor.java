@@ -0,0 +1,134 @@
+package modbus;
+
+import com.serotonin.modbus4j.locator.BaseLocator;
+import com.serotonin.modbus4j.locator.BinaryLocator;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * An immutable, pre-parsed view of a point node's attributes.
+ *
+ * It is compiled once when the point is created, edited or restored, so the
+ * poll loop never has to read attributes, parse enum names or build locators.
+ *
+ * */
+class PointDescriptor {
+	private static final Logger LOGGER;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(PointDescriptor.class);
+	}
+
+	final PointType pointType;
+	final DataType dataType;
+	final int offset;
+	final int numRegisters;
+	final int bit;
+	final double scaling;
+	final double scalingOffset;
+	final BaseLocator<?> locator;
+	final PollClass pollClass;
+	// whether polls decode the point with PointDecoder rather than its locator
+	final boolean decoded;
+	// whether it is a BOOLEAN point on a whole register, published as its bits
+	final boolean packed;
+	// 0 when not set
+	final double deadband;
+	final double deadbandPercent;
+
+	PointDescriptor(PointType pointType, DataType dataType, int offset, int numRegisters, int bit,
+			double scaling, double scalingOffset, BaseLocator<?> locator, PollClass pollClass, double deadband,
+			double deadbandPercent) {
+		this.pointType = pointType;
+		this.dataType = dataType;
+		this.offset = offset;
+		this.numRegisters = numRegisters;
+		this.bit = bit;
+		this.scaling = scaling;
+		this.scalingOffset = scalingOffset;
+		this.locator = locator;
+		this.pollClass = pollClass;
+		this.decoded = PointDecoder.isDecoded(dataType) && !BinaryLocator.isBinaryRange(locator.getRange());
+		this.packed = dataType == DataType.BOOLEAN && !BinaryLocator.isBinaryRange(locator.getRange()) && bit < 0;
+		this.deadband = deadband;
+		this.deadbandPercent = deadbandPercent;
+	}
+
+	/**
+	 * A change is only published once it is larger than every deadband that
+	 * is set.
+	 *
+	 * @return whether the change from the last published value is too small
+	 *         to publish
+	 */
+	boolean withinDeadband(double published, double value) {
+		double change = Math.abs(value - published);
+		if (deadband > 0 && change <= deadband) {
+			return true;
+		}
+		return deadbandPercent > 0 && change <= Math.abs(published) * deadbandPercent / 100;
+	}
+
+	/**
+	 * Builds the descriptor of a point node.
+	 *
+	 * @return null if the node is missing attributes or they can not be parsed
+	 */
+	static PointDescriptor compile(int slaveId, Node pnode) {
+		Value type = pnode.getAttribute(SlaveFolder.ATTR_POINT_TYPE);
+		Value offset = pnode.getAttribute(SlaveFolder.ATTR_OFFSET);
+		Value numRegs = pnode.getAttribute(SlaveFolder.ATTR_NUMBER_OF_REGISTERS);
+		Value dataType = pnode.getAttribute(SlaveFolder.ATTR_DATA_TYPE);
+		Value bit = pnode.getAttribute(SlaveFolder.ATTR_BIT);
+		Value scaling = pnode.getAttribute(SlaveFolder.ATTR_SCALING);
+		Value addScale = pnode.getAttribute(SlaveFolder.ATTR_SCALING_OFFSET);
+		Value poll = pnode.getAttribute(SlaveFolder.ATTR_POLL_CLASS);
+		Value deadband = pnode.getAttribute(SlaveFolder.ATTR_DEADBAND);
+		Value deadbandPercent = pnode.getAttribute(SlaveFolder.ATTR_DEADBAND_PERCENT);
+		if (type == null || offset == null || numRegs == null || dataType == null || bit == null || scaling == null
+				|| addScale == null) {
+			return null;
+		}
+
+		PointType pt;
+		DataType dt;
+		try {
+			pt = PointType.valueOf(type.getString());
+			dt = DataType.valueOf(dataType.getString());
+		} catch (Exception e) {
+			LOGGER.error("invalid type on point " + pnode.getName());
+			LOGGER.debug("error: ", e);
+			return null;
+		}
+
+		int off = Util.getIntValue(offset);
+		int regs = Util.getIntValue(numRegs);
+		int b = Util.getIntValue(bit);
+
+		Integer mdt = DataType.getDataTypeInt(dt);
+		if (mdt == null)
+			mdt = com.serotonin.modbus4j.code.DataType.FOUR_BYTE_INT_SIGNED;
+		int range = PointType.getPointTypeInt(pt);
+
+		if (dt == DataType.BOOLEAN && !BinaryLocator.isBinaryRange(range) && b < 0) {
+			mdt = com.serotonin.modbus4j.code.DataType.TWO_BYTE_INT_SIGNED;
+		}
+
+		BaseLocator<?> locator;
+		try {
+			locator = BaseLocator.createLocator(slaveId, range, off, mdt, b, regs);
+		} catch (Exception e) {
+			LOGGER.error("invalid locator on point " + pnode.getName() + ": " + e.getMessage());
+			LOGGER.debug("error: ", e);
+			return null;
+		}
+
+		PollClass pc = poll != null ? PollClass.parse(poll.getString()) : PollClass.DEVICE;
+
+		return new PointDescriptor(pt, dt, off, regs, b, Util.getDoubleValue(scaling), Util.getDoubleValue(addScale),
+				locator, pc, deadband != null ? Math.max(0, Util.getDoubleValue(deadband)) : 0,
+				deadbandPercent != null ? Math.max(0, Util.getDoubleValue(deadbandPercent)) : 0);
+	}
+}
@@ -0,0 +1,33 @@
+package modbus;
+
+/*
+ * The rate a point is polled at. Points of one class share a read plan, so a
+ * fast handful of registers does not drag every slow point of the device
+ * along with it.
+ * 
+ * DEVICE follows the polling interval of the device the point belongs to.
+ * 
+ * */
+public enum PollClass {
+	DEVICE(0), RATE_250MS(250), RATE_1S(1000), RATE_10S(10000), RATE_60S(60000);
+
+	static final PollClass[] VALUES = values();
+
+	private final long intervalInMs;
+
+	PollClass(long intervalInMs) {
+		this.intervalInMs = intervalInMs;
+	}
+
+	long getInterval(long deviceInterval) {
+		return this == DEVICE ? deviceInterval : intervalInMs;
+	}
+
+	static PollClass parse(String str) {
+		try {
+			return PollClass.valueOf(str);
+		} catch (Exception e) {
+			return DEVICE;
+		}
+	}
+}
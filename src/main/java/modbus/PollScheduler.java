@@ -0,0 +1,324 @@
+package modbus;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * The one timer behind the polling of every device of the link.
+ *
+ * A hashed timer wheel: a single thread advances a ring of buckets every
+ * TICK_MS and fires the tasks whose deadline has come. A fired poll does not
+ * run on the wheel thread, it is handed to the lane of its connection, which
+ * runs at most ModbusConnection.maxConcurrentPolls polls at a time and queues
+ * the rest.
+ *
+ * A lane hands out its slots by start-time fair queueing over the time each
+ * device's polls keep the connection busy, so a device that takes seconds per
+ * poll waits out the quick ones rather than delaying all of them by as much.
+ * A device that keeps failing is put in a penalty box by its DeviceHealth,
+ * which has its polls return at once and only probes it on a slow schedule
+ * until it answers again, so on a shared bus it no longer holds up the rest.
+ * Nothing is dispatched at all for a connection whose circuit breaker is open.
+ *
+ * Deadlines advance by whole periods from the first one, so the polls do not
+ * drift by the time they take. A poll that is still running or queued when
+ * its next deadline comes is skipped rather than piled up, and both skipped
+ * and late polls are counted on the device.
+ *
+ * */
+class PollScheduler {
+	private static final Logger LOGGER;
+
+	static final long TICK_MS = 10;
+	private static final int WHEEL_SIZE = 512;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	// first deadlines are spread over at most this much
+	private static final long MAX_PHASE_MS = 1000;
+	private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(PollScheduler.class);
+	}
+
+	// only touched by the wheel thread
+	private final ArrayDeque<PollTask>[] wheel;
+	private long currentTick;
+	private long startTime;
+
+	// tasks waiting to be put on the wheel, new ones and re-timed ones alike
+	private final Queue<PollTask> incoming = new ConcurrentLinkedQueue<>();
+	private final Map<SlaveNode, PollTask> tasks = new ConcurrentHashMap<>();
+	private double phase;
+
+	private final Thread thread;
+	private volatile boolean stopped;
+
+	@SuppressWarnings("unchecked")
+	PollScheduler() {
+		wheel = new ArrayDeque[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = new ArrayDeque<>();
+		}
+		thread = new Thread(this::run, "Modbus poll scheduler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Polls a device every periodInMs, replacing its previous schedule if the
+	 * period changed.
+	 */
+	synchronized void schedule(SlaveNode slave, long periodInMs) {
+		long period = Math.max(periodInMs, TICK_MS);
+		PollTask old = tasks.get(slave);
+		if (old != null) {
+			if (old.period == period) {
+				return;
+			}
+			old.cancelled = true;
+		}
+		PollTask task = new PollTask(slave, period);
+		task.deadline = System.currentTimeMillis() + nextPhase(period);
+		tasks.put(slave, task);
+		incoming.add(task);
+	}
+
+	synchronized void cancel(SlaveNode slave) {
+		PollTask task = tasks.remove(slave);
+		if (task != null) {
+			task.cancelled = true;
+		}
+	}
+
+	void stop() {
+		stopped = true;
+		thread.interrupt();
+	}
+
+	/*
+	 * Successive multiples of the golden ratio land evenly apart for any
+	 * number of devices, so devices with the same period never share a tick.
+	 */
+	private long nextPhase(long period) {
+		phase = (phase + GOLDEN_RATIO_FRACTION) % 1.0;
+		return (long) (phase * Math.min(period, MAX_PHASE_MS));
+	}
+
+	private void run() {
+		startTime = System.currentTimeMillis();
+		while (!stopped) {
+			long tickTime = startTime + currentTick * TICK_MS;
+			long sleep = tickTime - System.currentTimeMillis();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					continue;
+				}
+			}
+
+			PollTask task;
+			while ((task = incoming.poll()) != null) {
+				if (!task.cancelled) {
+					place(task);
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			Iterator<PollTask> it = wheel[(int) (currentTick & WHEEL_MASK)].iterator();
+			while (it.hasNext()) {
+				task = it.next();
+				if (task.cancelled) {
+					it.remove();
+				} else if (task.remainingRounds > 0) {
+					task.remainingRounds--;
+				} else {
+					it.remove();
+					fire(task, now);
+				}
+			}
+			currentTick++;
+		}
+	}
+
+	private void place(PollTask task) {
+		long tick = (task.deadline - startTime + TICK_MS - 1) / TICK_MS;
+		if (tick < currentTick) {
+			tick = currentTick;
+		}
+		task.remainingRounds = (tick - currentTick) / WHEEL_SIZE;
+		wheel[(int) (tick & WHEEL_MASK)].add(task);
+	}
+
+	private void fire(PollTask task, long now) {
+		long due = task.deadline;
+
+		// re-armed before it runs, so the next deadline doesn't depend on how
+		// long this poll takes
+		long next = due + task.period;
+		if (next <= now) {
+			long missed = (now - next) / task.period + 1;
+			next += missed * task.period;
+			task.slave.pollsSkipped(missed);
+		}
+		task.deadline = next;
+		// through the queue, the bucket being expired must not grow under it
+		incoming.add(task);
+
+		ModbusConnection conn = task.slave.conn;
+		if (conn.breaker.isOpen()) {
+			// the connection is down, the poll would find no master
+			return;
+		}
+		PollLane lane = conn.pollLane;
+		synchronized (lane) {
+			if (task.state.busy) {
+				task.slave.pollsSkipped(1);
+				return;
+			}
+			task.state.busy = true;
+			task.dueAt = due;
+			task.startTag = Math.max(lane.virtualTime, task.state.finishTag);
+			if (lane.running >= Math.max(1, conn.maxConcurrentPolls)) {
+				lane.queued.add(task);
+				return;
+			}
+			lane.virtualTime = task.startTag;
+			lane.running++;
+		}
+		execute(task);
+	}
+
+	private void execute(PollTask task) {
+		SharedExecutor.execute(() -> runPoll(task));
+	}
+
+	private void runPoll(PollTask task) {
+		SlaveNode slave = task.slave;
+		task.startedNanos = System.nanoTime();
+		long lateness = System.currentTimeMillis() - task.dueAt;
+		if (lateness > Math.max(2 * TICK_MS, task.period / 10)) {
+			slave.pollLate();
+		}
+		CompletableFuture<Void> done = null;
+		try {
+			if (!task.cancelled) {
+				done = slave.readPoints();
+			}
+		} catch (RuntimeException e) {
+			LOGGER.warn("error polling " + slave.node.getName() + ": " + e.getMessage());
+			LOGGER.debug("error: ", e);
+		}
+		if (done != null && !done.isDone()) {
+			// an asynchronous poll keeps its lane slot, not its thread
+			done.whenComplete((result, error) -> finish(task));
+		} else {
+			finish(task);
+		}
+	}
+
+	private void finish(PollTask task) {
+		PollLane lane = task.slave.conn.pollLane;
+		long elapsed = System.nanoTime() - task.startedNanos;
+		lane.busy(elapsed);
+		PollTask next;
+		synchronized (lane) {
+			task.state.busy = false;
+			task.state.finishTag = task.startTag + elapsed;
+			next = lane.next();
+			if (next == null) {
+				lane.running--;
+			} else {
+				lane.virtualTime = next.startTag;
+			}
+		}
+		if (next != null) {
+			execute(next);
+		}
+	}
+
+	private static class PollTask {
+		final SlaveNode slave;
+		final long period;
+		volatile boolean cancelled;
+
+		// wheel thread only
+		long deadline;
+		long remainingRounds;
+
+		// kept on the device, a poll of a cancelled or re-timed task may still
+		// be running
+		final DeviceState state;
+		// guarded by the connection's lane
+		long dueAt;
+		long startTag;
+
+		// written by the thread starting the poll, read once it's finished
+		volatile long startedNanos;
+
+		PollTask(SlaveNode slave, long period) {
+			this.slave = slave;
+			this.period = period;
+			this.state = slave.pollState;
+		}
+	}
+
+	/*
+	 * The scheduling state of a device that outlives its tasks, guarded by
+	 * the connection's lane.
+	 */
+	static class DeviceState {
+		// whether a poll of the device is running or queued
+		boolean busy;
+		// the finish tag of its last poll, in busy nanoseconds
+		long finishTag;
+	}
+
+	/*
+	 * The polls of one connection that are running or waiting for a free slot.
+	 */
+	static class PollLane {
+		private final Queue<PollTask> queued = new ArrayDeque<>();
+		private int running;
+		// the start tag of the poll that got the last slot, in busy nanoseconds
+		private long virtualTime;
+		private final AtomicLong busyNanos = new AtomicLong();
+
+		/**
+		 * Counts time the connection spent on a poll or another request.
+		 */
+		void busy(long nanos) {
+			busyNanos.addAndGet(nanos);
+		}
+
+		/**
+		 * @return the time the connection spent on polls and other requests
+		 *         since the last call
+		 */
+		long takeBusyNanos() {
+			return busyNanos.getAndSet(0);
+		}
+
+		// the queued poll with the lowest start tag, guarded by the lane
+		private PollTask next() {
+			PollTask next = null;
+			for (PollTask task : queued) {
+				if (next == null || task.startTag < next.startTag) {
+					next = task;
+				}
+			}
+			if (next != null) {
+				queued.remove(next);
+			}
+			return next;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package modbus;
+
+import com.serotonin.modbus4j.code.RegisterRange;
+import com.serotonin.modbus4j.msg.ModbusRequest;
+import com.serotonin.modbus4j.msg.ReadCoilsRequest;
+import com.serotonin.modbus4j.msg.ReadDiscreteInputsRequest;
+import com.serotonin.modbus4j.msg.ReadHoldingRegistersRequest;
+import com.serotonin.modbus4j.msg.ReadInputRegistersRequest;
+
+/*
+ * One read request of a ReadPlan: a contiguous run of registers (or bits) in
+ * a single register range, and the plan's points that live inside it.
+ * 
+ * */
+class ReadBlock {
+	final int range;
+	final int startOffset;
+	final int length;
+	// indexes into the plan's point and descriptor arrays
+	final int[] points;
+	final ModbusRequest request;
+
+	ReadBlock(int slaveId, int range, int startOffset, int length, int[] points) throws Exception {
+		this.range = range;
+		this.startOffset = startOffset;
+		this.length = length;
+		this.points = points;
+		this.request = makeRequest(slaveId, range, startOffset, length);
+	}
+
+	private static ModbusRequest makeRequest(int slaveId, int range, int startOffset, int length) throws Exception {
+		switch (range) {
+		case RegisterRange.COIL_STATUS:
+			return new ReadCoilsRequest(slaveId, startOffset, length);
+		case RegisterRange.INPUT_STATUS:
+			return new ReadDiscreteInputsRequest(slaveId, startOffset, length);
+		case RegisterRange.HOLDING_REGISTER:
+			return new ReadHoldingRegistersRequest(slaveId, startOffset, length);
+		case RegisterRange.INPUT_REGISTER:
+			return new ReadInputRegistersRequest(slaveId, startOffset, length);
+		default:
+			throw new IllegalArgumentException("unknown register range " + range);
+		}
+	}
+}
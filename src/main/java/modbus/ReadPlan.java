@@ -0,0 +1,67 @@
+package modbus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.dsa.iot.dslink.node.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * The points of one poll class that a SlaveNode polls, frozen into arrays
+ * together with the read requests that fetch them.
+ * 
+ * A plan is immutable and is only rebuilt when the subscribed set, a point or
+ * the batching options change, so steady-state polls just replay the same
+ * requests.
+ * 
+ * */
+class ReadPlan {
+	private static final Logger LOGGER;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(ReadPlan.class);
+	}
+
+	final Node[] points;
+	final PointDescriptor[] descriptors;
+	// null when batch polling is off and every point is read on its own
+	final ReadBlock[] blocks;
+
+	ReadPlan(Set<Node> subscribed, Map<Node, PointDescriptor> compiled, PollClass pollClass, boolean batchPolling,
+			int slaveId, int maxGap, int maxRegisterCount, int maxBitCount) {
+		List<Node> nodes = new ArrayList<>(subscribed.size());
+		List<PointDescriptor> descs = new ArrayList<>(subscribed.size());
+		for (Node pnode : subscribed) {
+			PointDescriptor descriptor = compiled.get(pnode);
+			if (descriptor == null || descriptor.pollClass != pollClass) {
+				continue;
+			}
+			if (!ReadPlanner.fitsOneRequest(descriptor, maxRegisterCount, maxBitCount)) {
+				// the device would reject its read on every poll, and be taken as down for it
+				LOGGER.warn(pnode.getName() + " spans " + descriptor.locator.getRegisterCount()
+						+ " registers, more than the connection's max read count, it is not polled");
+				continue;
+			}
+			nodes.add(pnode);
+			descs.add(descriptor);
+		}
+		this.points = nodes.toArray(new Node[0]);
+		this.descriptors = descs.toArray(new PointDescriptor[0]);
+
+		if (batchPolling) {
+			blocks = ReadPlanner.plan(slaveId, descriptors, maxGap, maxRegisterCount, maxBitCount);
+		} else {
+			blocks = null;
+		}
+	}
+
+	boolean isEmpty() {
+		return points.length == 0;
+	}
+
+	int getRequestCount() {
+		return blocks != null ? blocks.length : points.length;
+	}
+}
@@ -0,0 +1,105 @@
+package modbus;
+
+import com.serotonin.modbus4j.locator.BaseLocator;
+import com.serotonin.modbus4j.locator.BinaryLocator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Coalesces the points of a device into as few read requests as possible.
+ * 
+ * Points are sorted by register range and offset, then merged greedily: the
+ * next point joins the current request as long as the hole in front of it is
+ * no bigger than maxGap and the request stays within the max read count of
+ * its range. A maxGap of 0 yields contiguous requests only.
+ * 
+ * A point that on its own spans more than the max read count of its range
+ * can not be read by any request the device accepts, so it is left out.
+ * ReadPlan leaves such points out of the plan altogether and says so.
+ * 
+ * */
+class ReadPlanner {
+	private static final Logger LOGGER;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(ReadPlanner.class);
+	}
+
+	private ReadPlanner() {
+	}
+
+	static ReadBlock[] plan(int slaveId, PointDescriptor[] descriptors, int maxGap, int maxRegisterCount,
+			int maxBitCount) {
+		Integer[] order = new Integer[descriptors.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.<Integer> comparingInt(i -> descriptors[i].locator.getRange())
+				.thenComparingInt(i -> descriptors[i].locator.getOffset()));
+
+		List<ReadBlock> blocks = new ArrayList<>();
+		List<Integer> members = new ArrayList<>();
+		int range = -1;
+		int start = 0;
+		int end = -1;
+		for (int i : order) {
+			if (!fitsOneRequest(descriptors[i], maxRegisterCount, maxBitCount)) {
+				continue;
+			}
+			BaseLocator<?> locator = descriptors[i].locator;
+			int pointStart = locator.getOffset();
+			int pointEnd = pointStart + locator.getRegisterCount() - 1;
+			int maxCount = getMaxCount(locator, maxRegisterCount, maxBitCount);
+
+			boolean fits = !members.isEmpty() && locator.getRange() == range
+					&& (long) pointStart - end - 1 <= maxGap
+					&& Math.max(end, pointEnd) - start + 1 <= maxCount;
+			if (!fits) {
+				addBlock(blocks, slaveId, range, start, end, members);
+				members.clear();
+				range = locator.getRange();
+				start = pointStart;
+				end = pointEnd;
+			}
+			end = Math.max(end, pointEnd);
+			members.add(i);
+		}
+		addBlock(blocks, slaveId, range, start, end, members);
+
+		return blocks.toArray(new ReadBlock[0]);
+	}
+
+	/**
+	 * @return whether the point is no longer than the max read count of its
+	 *         range
+	 */
+	static boolean fitsOneRequest(PointDescriptor descriptor, int maxRegisterCount, int maxBitCount) {
+		BaseLocator<?> locator = descriptor.locator;
+		return locator.getRegisterCount() <= getMaxCount(locator, maxRegisterCount, maxBitCount);
+	}
+
+	private static int getMaxCount(BaseLocator<?> locator, int maxRegisterCount, int maxBitCount) {
+		return BinaryLocator.isBinaryRange(locator.getRange()) ? maxBitCount : maxRegisterCount;
+	}
+
+	private static void addBlock(List<ReadBlock> blocks, int slaveId, int range, int start, int end,
+			List<Integer> members) {
+		if (members.isEmpty()) {
+			return;
+		}
+		int[] points = new int[members.size()];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = members.get(i);
+		}
+		try {
+			blocks.add(new ReadBlock(slaveId, range, start, end - start + 1, points));
+		} catch (Exception e) {
+			LOGGER.error("unable to build read request at offset " + start + ": " + e.getMessage());
+			LOGGER.debug("error: ", e);
+		}
+	}
+}
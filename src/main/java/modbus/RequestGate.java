@@ -0,0 +1,79 @@
+package modbus;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/*
+ * Hands out a connection's master to one request at a time, by priority rather
+ * than in whatever order the JVM wakes up the threads waiting on masterLock.
+ *
+ * Writes go first, then one-off reads such as device probes, then polls, and
+ * requests of the same priority go in the order they asked. Polls pass through
+ * the gate once per request rather than once per poll, so a write waits for at
+ * most the request that is on the wire, not for whole poll cycles.
+ *
+ * Pipelined and asynchronous masters, which don't serialize their requests,
+ * don't need it for their polls.
+ *
+ * */
+class RequestGate {
+
+	enum Priority {
+		WRITE, READ, POLL
+	}
+
+	private final Queue<Object>[] waiting;
+	// whether a request holds the gate, guarded by this
+	private boolean busy;
+
+	@SuppressWarnings("unchecked")
+	RequestGate() {
+		waiting = new Queue[Priority.values().length];
+		for (int i = 0; i < waiting.length; i++) {
+			waiting[i] = new ArrayDeque<>();
+		}
+	}
+
+	/**
+	 * Waits until no request holds the gate and none of a higher or the same
+	 * priority asked for it earlier. Interrupts don't cut the wait short, they
+	 * are left set for the caller.
+	 */
+	synchronized void acquire(Priority priority) {
+		if (!busy && first() == null) {
+			busy = true;
+			return;
+		}
+		Object ticket = new Object();
+		Queue<Object> queue = waiting[priority.ordinal()];
+		queue.add(ticket);
+		boolean interrupted = false;
+		while (busy || first() != ticket) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		queue.remove();
+		busy = true;
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	synchronized void release() {
+		busy = false;
+		notifyAll();
+	}
+
+	// the ticket of the request that goes next, guarded by this
+	private Object first() {
+		for (Queue<Object> queue : waiting) {
+			if (!queue.isEmpty()) {
+				return queue.peek();
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,218 @@
+package modbus;
+
+import com.serotonin.modbus4j.ModbusMaster;
+import com.serotonin.modbus4j.exception.ModbusInitException;
+import com.serotonin.modbus4j.exception.ModbusTransportException;
+import com.serotonin.modbus4j.msg.ModbusRequest;
+import com.serotonin.modbus4j.msg.ModbusResponse;
+import com.serotonin.modbus4j.sero.util.queue.ByteQueue;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * A Modbus RTU master that takes a response as complete once the line has been
+ * quiet for the 3.5 character times the RTU framing rules define, instead of
+ * waiting on fixed delays. The silence is worked out from the port's baud rate,
+ * data bits, parity and stop bits by SerialConn.
+ *
+ * The serial driver hands bytes over in bursts, and a pause between two bursts
+ * can look like the end of a frame at high baud rates. A frame is therefore
+ * only accepted once its CRC checks out, otherwise reading carries on until the
+ * timeout.
+ *
+ * How long to wait for a response is up to the connection's AdaptiveTimeouts.
+ *
+ * */
+class RtuSerialMaster extends ModbusMaster {
+	private static final Logger LOGGER;
+
+	// unit id, function code and CRC
+	private static final int MIN_FRAME_LENGTH = 4;
+	private static final int MAX_FRAME_LENGTH = 256;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(RtuSerialMaster.class);
+	}
+
+	private final SerialPortWrapperImpl wrapper;
+	private final long characterNanos;
+	private final long silenceNanos;
+	private final AdaptiveTimeouts timeouts;
+
+	private SerialInputStream in;
+	private SerialOutputStream out;
+	// when the bus is next free for us to transmit
+	private long busFreeNanos;
+
+	RtuSerialMaster(SerialPortWrapperImpl wrapper, long characterNanos, long silenceNanos,
+			AdaptiveTimeouts timeouts) {
+		this.wrapper = wrapper;
+		this.characterNanos = characterNanos;
+		this.silenceNanos = silenceNanos;
+		this.timeouts = timeouts;
+	}
+
+	@Override
+	public synchronized void init() throws ModbusInitException {
+		try {
+			wrapper.open();
+		} catch (Exception e) {
+			throw new ModbusInitException(e);
+		}
+		in = wrapper.getInputStream();
+		out = wrapper.getOutputStream();
+		busFreeNanos = System.nanoTime();
+		initialized = true;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		initialized = false;
+		try {
+			wrapper.close();
+		} catch (Exception e) {
+			LOGGER.debug("error closing serial port: ", e);
+		}
+	}
+
+	@Override
+	public synchronized ModbusResponse sendImpl(ModbusRequest request) throws ModbusTransportException {
+		if (!initialized) {
+			throw new ModbusTransportException("serial port not open", request.getSlaveId());
+		}
+		ByteQueue queue = new ByteQueue();
+		request.write(queue);
+		byte[] body = queue.popAll();
+		byte[] frame = new byte[body.length + 2];
+		System.arraycopy(body, 0, frame, 0, body.length);
+		int crc = crc(frame, body.length);
+		frame[body.length] = (byte) crc;
+		frame[body.length + 1] = (byte) (crc >> 8);
+
+		int slaveId = request.getSlaveId();
+		int retries = getRetries();
+		while (true) {
+			transmit(frame, request);
+			if (slaveId == 0) {
+				// nobody answers a broadcast
+				return null;
+			}
+			long sent = System.nanoTime();
+			byte[] response = receive(timeouts.getTimeout(slaveId));
+			if (response != null) {
+				timeouts.responded(slaveId, in.lastReceiveNanos() - sent);
+				return parse(response, request);
+			}
+			timeouts.timedOut(slaveId);
+			if (retries-- <= 0) {
+				throw new ModbusTransportException("request timed out", request.getSlaveId());
+			}
+		}
+	}
+
+	private void transmit(byte[] frame, ModbusRequest request) throws ModbusTransportException {
+		long wait = busFreeNanos - System.nanoTime();
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ModbusTransportException(e, request.getSlaveId());
+			}
+		}
+		// anything still waiting is left over from an earlier exchange
+		in.discard();
+		try {
+			out.write(frame);
+			out.flush();
+		} catch (IOException e) {
+			throw new ModbusTransportException(e, request.getSlaveId());
+		}
+		// the frame may still be leaving the UART when the write returns
+		busFreeNanos = System.nanoTime() + frame.length * characterNanos + silenceNanos;
+	}
+
+	/**
+	 * @return the response frame without its CRC, or null if no valid frame
+	 *         arrived within the timeout
+	 */
+	private byte[] receive(int timeout) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		byte[] frame = new byte[MAX_FRAME_LENGTH];
+		int length = 0;
+		// counted from before what is already waiting, so a response that came
+		// in between send() and here is read at once rather than after the timeout
+		long count = in.received() - in.available();
+		// the byte count at which the frame last failed its CRC
+		long checked = -1;
+		while (true) {
+			long now = System.nanoTime();
+			if (now - deadline >= 0) {
+				if (length > 0) {
+					LOGGER.debug("discarding incomplete or corrupt frame of " + length + " bytes");
+				}
+				return null;
+			}
+			long wait = deadline - now;
+			if (length > 0 && count != checked) {
+				wait = Math.min(wait, silenceNanos - (now - in.lastReceiveNanos()));
+			}
+			if (wait > 0 && in.awaitReceived(count, wait)) {
+				count = in.received();
+				int n = in.available();
+				if (length + n > frame.length) {
+					// more than a frame's worth, something else is talking on the bus
+					LOGGER.debug("discarding " + (length + n) + " bytes of oversized frame");
+					in.discard();
+					length = 0;
+					continue;
+				}
+				length += Math.max(0, in.read(frame, length, n));
+				continue;
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				return null;
+			}
+			if (length > 0 && count != checked && System.nanoTime() - in.lastReceiveNanos() >= silenceNanos) {
+				if (length < MIN_FRAME_LENGTH) {
+					checked = count;
+					continue;
+				}
+				int crc = crc(frame, length - 2);
+				if ((frame[length - 2] & 0xff) == (crc & 0xff) && (frame[length - 1] & 0xff) == (crc >> 8)) {
+					busFreeNanos = in.lastReceiveNanos() + silenceNanos;
+					byte[] body = new byte[length - 2];
+					System.arraycopy(frame, 0, body, 0, body.length);
+					return body;
+				}
+				// a pause inside the frame, wait for the rest of it
+				checked = count;
+			}
+		}
+	}
+
+	private static ModbusResponse parse(byte[] body, ModbusRequest request) throws ModbusTransportException {
+		ModbusResponse response = ModbusResponse.createModbusResponse(new ByteQueue(body));
+		if (response.getSlaveId() != request.getSlaveId()) {
+			throw new ModbusTransportException("response from slave " + response.getSlaveId(), request.getSlaveId());
+		}
+		return response;
+	}
+
+	private static int crc(byte[] data, int length) {
+		int crc = 0xffff;
+		for (int i = 0; i < length; i++) {
+			crc ^= data[i] & 0xff;
+			for (int bit = 0; bit < 8; bit++) {
+				if ((crc & 1) != 0) {
+					crc = (crc >>> 1) ^ 0xa001;
+				} else {
+					crc >>>= 1;
+				}
+			}
+		}
+		return crc;
+	}
+}
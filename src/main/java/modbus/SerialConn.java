@@ -3,10 +3,11 @@ package modbus;
 import com.serotonin.modbus4j.ModbusFactory;
 import com.serotonin.modbus4j.ModbusMaster;
 import com.serotonin.modbus4j.exception.ModbusInitException;
-import com.serotonin.modbus4j.serial.SerialPortWrapper;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.dsa.iot.dslink.node.Node;
 import org.dsa.iot.dslink.node.Permission;
 import org.dsa.iot.dslink.node.actions.Action;
@@ -14,6 +15,7 @@ import org.dsa.iot.dslink.node.actions.ActionResult;
 import org.dsa.iot.dslink.node.actions.Parameter;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.Objects;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +32,13 @@ public class SerialConn extends ModbusConnection {
 	static final String ATTR_DATA_BITS = "data bits";
 	static final String ATTR_STOP_BITS = "stop bits";
 	static final String ATTR_PARITY = "parity";
+	static final String DESCRIPTION_DISCARD_DATA_DELAY = "ASCII only, milliseconds after which received data is discarded; RTU drops stale data before every request by itself";
+
+	// above this baud rate the Modbus spec fixes the inter-frame silence
+	private static final int FIXED_SILENCE_BAUD_RATE = 19200;
+	private static final long FIXED_SILENCE_NANOS = 1750000;
+	// how often the bus utilization is worked out
+	private static final long BUS_UTILIZATION_PERIOD_MS = 5000;
 
 	SerialTransportType transType;
 	String commPortId;
@@ -39,8 +48,42 @@ public class SerialConn extends ModbusConnection {
 	int parity;
 	String parityString;
 
+	Node busUtilizationNode;
+	private final ScheduledFuture<?> busUtilizationFuture;
+	private long lastBusSampleNanos = System.nanoTime();
+
 	SerialConn(ModbusLink link, Node node) {
 		super(link, node);
+
+		busUtilizationNode = node.getChild(NODE_BUS_UTILIZATION, true);
+		if (busUtilizationNode == null) {
+			busUtilizationNode = node.createChild(NODE_BUS_UTILIZATION, true).setValueType(ValueType.NUMBER)
+					.setValue(new Value(0)).build();
+		}
+		busUtilizationFuture = Objects.getDaemonThreadPool().scheduleAtFixedRate(this::updateBusUtilization,
+				BUS_UTILIZATION_PERIOD_MS, BUS_UTILIZATION_PERIOD_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * The share of the time since the last update that the bus spent on polls
+	 * and writes, in percent.
+	 */
+	private void updateBusUtilization() {
+		long now = System.nanoTime();
+		long elapsed = now - lastBusSampleNanos;
+		lastBusSampleNanos = now;
+		long busy = pollLane.takeBusyNanos();
+		if (elapsed <= 0) {
+			return;
+		}
+		double percent = Math.min(100.0, busy * 100.0 / elapsed);
+		busUtilizationNode.setValue(new Value(Math.round(percent * 10) / 10.0));
+	}
+
+	@Override
+	void remove() {
+		busUtilizationFuture.cancel(false);
+		super.remove();
 	}
 
 	String getAddDeviceActionName() {
@@ -91,6 +134,7 @@ public class SerialConn extends ModbusConnection {
 				node.getAttribute(ATTR_PARITY)));
 
 		act.addParameter(new Parameter(ATTR_TIMEOUT, ValueType.NUMBER, node.getAttribute(ATTR_TIMEOUT)));
+		addAdaptiveTimeoutParameters(act);
 		act.addParameter(new Parameter(ATTR_RETRIES, ValueType.NUMBER, node.getAttribute(ATTR_RETRIES)));
 		act.addParameter(
 				new Parameter(ATTR_MAX_READ_BIT_COUNT, ValueType.NUMBER, node.getAttribute(ATTR_MAX_READ_BIT_COUNT)));
@@ -99,9 +143,11 @@ public class SerialConn extends ModbusConnection {
 		act.addParameter(new Parameter(ATTR_MAX_WRITE_REGISTER_COUNT, ValueType.NUMBER,
 				node.getAttribute(ATTR_MAX_WRITE_REGISTER_COUNT)));
 		act.addParameter(
-				new Parameter(ATTR_DISCARD_DATA_DELAY, ValueType.NUMBER, node.getAttribute(ATTR_DISCARD_DATA_DELAY)));
+				new Parameter(ATTR_DISCARD_DATA_DELAY, ValueType.NUMBER, node.getAttribute(ATTR_DISCARD_DATA_DELAY))
+						.setDescription(DESCRIPTION_DISCARD_DATA_DELAY));
 		act.addParameter(new Parameter(ATTR_USE_MULTIPLE_WRITE_COMMAND, ValueType.makeEnum(MULTIPLE_WRITE_COMMAND_OPTIONS),
 				node.getAttribute(ATTR_USE_MULTIPLE_WRITE_COMMAND)));
+		addConnectOnSubscribeParameters(act);
 
 		return act;
 	}
@@ -133,10 +179,10 @@ public class SerialConn extends ModbusConnection {
 		readSerialAttributes();
 		readMasterAttributes();
 
-		SerialPortWrapper wrapper = new SerialPortWrapperImpl(commPortId, baudRate, dataBits, stopBits, parity);
+		SerialPortWrapperImpl wrapper = new SerialPortWrapperImpl(commPortId, baudRate, dataBits, stopBits, parity);
 		switch (transType) {
 		case RTU:
-			master = new ModbusFactory().createRtuMaster(wrapper);
+			master = new RtuSerialMaster(wrapper, getCharacterNanos(), getFrameSilenceNanos(), timeouts);
 			break;
 		case ASCII:
 			master = new ModbusFactory().createAsciiMaster(wrapper);
@@ -166,6 +212,27 @@ public class SerialConn extends ModbusConnection {
 		return master;
 	}
 
+	/**
+	 * @return how long one character takes on the wire, counting the start,
+	 *         parity and stop bits
+	 */
+	long getCharacterNanos() {
+		// jssc encodes 1.5 stop bits as 3
+		double stop = (stopBits == 3) ? 1.5 : stopBits;
+		double bits = 1 + dataBits + ((parity != 0) ? 1 : 0) + stop;
+		return (long) (bits * 1000000000L / Math.max(1, baudRate));
+	}
+
+	/**
+	 * @return the 3.5 character silence that ends an RTU frame
+	 */
+	long getFrameSilenceNanos() {
+		if (baudRate > FIXED_SILENCE_BAUD_RATE) {
+			return FIXED_SILENCE_NANOS;
+		}
+		return getCharacterNanos() * 7 / 2;
+	}
+
 	@Override
 	void duplicate(ModbusLink link, Node newnode) {
 		ModbusConnection conn = new SerialConn(link, newnode);
@@ -204,6 +271,8 @@ public class SerialConn extends ModbusConnection {
 			boolean batchpoll = event.getParameter(ATTR_USE_BATCH_POLLING, ValueType.BOOL).getBool();
 			boolean contig = event.getParameter(ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, ValueType.BOOL).getBool();
 			long suppressDuration = (long) (event.getParameter(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, ValueType.NUMBER).getNumber().doubleValue() * 1000);
+			int maxGap = event.getParameter(ATTR_MAX_READ_GAP, ValueType.NUMBER).getNumber().intValue();
+			int coalescingWindow = event.getParameter(ATTR_WRITE_COALESCING_WINDOW, new Value(0)).getNumber().intValue();
 
 			transtype = conn.node.getAttribute(ATTR_TRANSPORT_TYPE).getString();
 			commPortId = conn.node.getAttribute(ATTR_COMM_PORT_ID).getString();
@@ -228,6 +297,8 @@ public class SerialConn extends ModbusConnection {
 			snode.setAttribute(ATTR_USE_BATCH_POLLING, new Value(batchpoll));
 			snode.setAttribute(ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, new Value(contig));
 			snode.setAttribute(ATTR_SUPPRESS_NON_COV_DURATION, new Value(suppressDuration));
+			snode.setAttribute(ATTR_MAX_READ_GAP, new Value(maxGap));
+			snode.setAttribute(ATTR_WRITE_COALESCING_WINDOW, new Value(coalescingWindow));
 
 			snode.setAttribute(ATTR_TRANSPORT_TYPE, new Value(transtype));
 			snode.setAttribute(ATTR_COMM_PORT_ID, new Value(commPortId));
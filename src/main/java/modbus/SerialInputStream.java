@@ -2,7 +2,7 @@ package modbus;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 import jssc.SerialPort;
 import jssc.SerialPortEvent;
 import jssc.SerialPortEventListener;
@@ -10,48 +10,142 @@ import jssc.SerialPortException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/*
+ * Received bytes are kept in a single-producer/single-consumer ring buffer:
+ * the jssc event thread is the only writer and the modbus4j reader the only
+ * reader, so neither side takes a lock or boxes a byte.
+ *
+ * Each side owns one index and publishes it through a volatile write after
+ * touching the buffer, which is what makes the other side's view of the bytes
+ * safe.
+ *
+ * The reader can also block in awaitReceived() until the event thread stores
+ * more bytes, and lastReceiveNanos() tells it how long the line has been quiet,
+ * which is how RtuSerialMaster finds the end of a frame.
+ *
+ * */
 public class SerialInputStream extends InputStream implements SerialPortEventListener {
 
 	private final Logger LOGGER = LoggerFactory.getLogger(SerialInputStream.class);
+
+	// a power of two, many times the longest Modbus frame
+	private static final int BUFFER_SIZE = 8192;
+	private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
 	private final Object closeLock = new Object();
 	private volatile boolean closed = false;
-	protected final LinkedBlockingQueue<Byte> dataStream;
-	protected final Object dataStreamLock = new Object();
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	// only written by the event thread
+	private volatile long writeIndex;
+	// only written by the reading thread
+	private volatile long readIndex;
+	// when bytes were last stored, written before writeIndex is published
+	private volatile long lastReceiveNanos;
+	private volatile Thread waiter;
 	protected final SerialPort port;
 
 	public SerialInputStream(SerialPort serialPort) throws SerialPortException {
-		this.dataStream = new LinkedBlockingQueue<>();
-
 		this.port = serialPort;
 		this.port.addEventListener(this, SerialPort.MASK_RXCHAR);
 	}
 
 	@Override
-	public int read() throws IOException {
-		synchronized (dataStreamLock) {
-			try {
-				if (dataStream.size() > 0)
-					return dataStream.take() & 0xFF; // Return unsigned byte
-														// value by masking off
-														// the high order bytes
-														// in the returned int
-				else
-					return -1;
-			} catch (InterruptedException e) {
-				throw new IOException(e);
-			}
+	public int read() {
+		long r = readIndex;
+		if (r == writeIndex) {
+			return -1;
 		}
+		int b = buffer[(int) (r & BUFFER_MASK)] & 0xFF;
+		readIndex = r + 1;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		long r = readIndex;
+		int n = (int) Math.min(len, writeIndex - r);
+		if (n == 0) {
+			return -1;
+		}
+		int start = (int) (r & BUFFER_MASK);
+		int first = Math.min(n, BUFFER_SIZE - start);
+		System.arraycopy(buffer, start, b, off, first);
+		if (first < n) {
+			System.arraycopy(buffer, 0, b, off + first, n - first);
+		}
+		readIndex = r + n;
+		return n;
 	}
 
 	@Override
 	public int available() {
-		synchronized (dataStreamLock) {
-			return this.dataStream.size();
+		return (int) (writeIndex - readIndex);
+	}
+
+	/**
+	 * @return the number of bytes stored since the stream was opened
+	 */
+	long received() {
+		return writeIndex;
+	}
+
+	/**
+	 * @return the System.nanoTime() at which bytes were last stored
+	 */
+	long lastReceiveNanos() {
+		return lastReceiveNanos;
+	}
+
+	/**
+	 * Waits until more than count bytes have been stored, or the timeout runs
+	 * out. Only the reading thread may call this.
+	 * 
+	 * @return whether more than count bytes have been stored
+	 */
+	boolean awaitReceived(long count, long timeoutNanos) {
+		if (writeIndex > count) {
+			return true;
+		}
+		long deadline = System.nanoTime() + timeoutNanos;
+		waiter = Thread.currentThread();
+		try {
+			long remaining = timeoutNanos;
+			while (writeIndex <= count && remaining > 0) {
+				LockSupport.parkNanos(this, remaining);
+				if (Thread.interrupted()) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				remaining = deadline - System.nanoTime();
+			}
+		} finally {
+			waiter = null;
 		}
+		return writeIndex > count;
+	}
+
+	/**
+	 * Drops everything received so far. Only the reading thread may call this.
+	 */
+	void discard() {
+		readIndex = writeIndex;
 	}
 
+	/**
+	 * @return the next byte without consuming it, or -1 if there is none
+	 */
 	public int peek() {
-		return this.dataStream.peek();
+		long r = readIndex;
+		if (r == writeIndex) {
+			return -1;
+		}
+		return buffer[(int) (r & BUFFER_MASK)] & 0xFF;
 	}
 
 	public void closeImpl() throws IOException {
@@ -76,21 +170,37 @@ public class SerialInputStream extends InputStream implements SerialPortEventLis
 	@Override
 	public void serialEvent(SerialPortEvent event) {
 		if (event.isRXCHAR()) {// If data is available
-
-			// Read the bytes, store into queue
 			try {
-				synchronized (dataStreamLock) {
-					byte[] buffer = this.port.readBytes(event.getEventValue());
-					for (byte b : buffer) {
-						this.dataStream.put(b);
-					}
+				byte[] received = this.port.readBytes(event.getEventValue());
+				if (received != null) {
+					store(received);
 				}
-
 			} catch (Exception e) {
 				LOGGER.debug("", e);
 			}
-
 		} // end was RX event
 	}
 
+	private void store(byte[] received) {
+		long w = writeIndex;
+		int free = (int) (BUFFER_SIZE - (w - readIndex));
+		int n = Math.min(received.length, free);
+		if (n < received.length) {
+			// nobody is reading, the newest bytes are the ones dropped
+			LOGGER.warn("serial input buffer full, dropped " + (received.length - n) + " bytes");
+		}
+		int start = (int) (w & BUFFER_MASK);
+		int first = Math.min(n, BUFFER_SIZE - start);
+		System.arraycopy(received, 0, buffer, start, first);
+		if (first < n) {
+			System.arraycopy(received, first, buffer, 0, n - first);
+		}
+		lastReceiveNanos = System.nanoTime();
+		writeIndex = w + n;
+		Thread t = waiter;
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+
 }
@@ -2,31 +2,72 @@ package modbus;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import jssc.SerialPort;
 
+/*
+ * Collects the bytes of a frame and hands them to jssc in one native write
+ * when the frame is flushed, which modbus4j does after writing each request.
+ * Sending a frame piecemeal leaves gaps between characters that strict RTU
+ * slaves take for the end of the frame.
+ *
+ * */
 public class SerialOutputStream extends OutputStream {
+	// an ASCII frame of the largest PDU, so a flush is never forced mid-frame
+	private static final int MAX_FRAME_LENGTH = 513;
+
 	private final SerialPort port;
+	private final byte[] frame = new byte[MAX_FRAME_LENGTH];
+	private int length;
 
 	public SerialOutputStream(SerialPort serialPort) {
 		this.port = serialPort;
 	}
 
 	@Override
-	public void write(int arg0) throws IOException {
+	public synchronized void write(int arg0) throws IOException {
+		if (length == frame.length) {
+			flush();
+		}
+		frame[length++] = (byte) arg0;
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (length == frame.length) {
+				flush();
+			}
+			int n = Math.min(len, frame.length - length);
+			System.arraycopy(b, off, frame, length, n);
+			length += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		if (length == 0) {
+			return;
+		}
+		byte[] bytes = Arrays.copyOf(frame, length);
+		length = 0;
 		try {
-			byte b = (byte) arg0;
 			if ((port != null) && (port.isOpened())) {
-				port.writeByte(b);
+				port.writeBytes(bytes);
 			}
 		} catch (jssc.SerialPortException e) {
 			throw new IOException(e);
 		}
-
 	}
 
 	@Override
-	public void flush() {
-		// Nothing yet
+	public void close() throws IOException {
+		flush();
 	}
 
 }
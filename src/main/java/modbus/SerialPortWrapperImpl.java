@@ -1,8 +1,6 @@
 package modbus;
 
 import com.serotonin.modbus4j.serial.SerialPortWrapper;
-import java.io.InputStream;
-import java.io.OutputStream;
 import jssc.SerialPort;
 
 public class SerialPortWrapperImpl implements SerialPortWrapper {
@@ -38,12 +36,12 @@ public class SerialPortWrapperImpl implements SerialPortWrapper {
 	}
 
 	@Override
-	public InputStream getInputStream() {
+	public SerialInputStream getInputStream() {
 		return is;
 	}
 
 	@Override
-	public OutputStream getOutputStream() {
+	public SerialOutputStream getOutputStream() {
 		return os;
 	}
 
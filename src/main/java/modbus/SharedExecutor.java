@@ -0,0 +1,64 @@
+package modbus;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * The worker threads every connection and local slave of the link share, so
+ * the thread count depends on the machine rather than on how many
+ * connections are configured.
+ *
+ * Work that must not overlap per connection is ordered before it gets here:
+ * polls go through the connection's PollScheduler.PollLane.
+ *
+ * The masters do blocking I/O, so the pool is a few times the core count
+ * rather than exactly it. It can be sized with the modbus.workerThreads system
+ * property.
+ *
+ * The pool is fixed, so it can run out: every poll that waits on a device that
+ * doesn't answer holds a worker for its timeout times its retries, up to
+ * maxConcurrentPolls of them per connection. Until DeviceHealth takes such
+ * devices down, or with many serial connections whose buses all went quiet,
+ * the other connections' polls queue up behind them. A link with more of
+ * those than workers wants modbus.workerThreads raised to at least the sum of
+ * the connections' maxConcurrentPolls.
+ *
+ * */
+final class SharedExecutor {
+	private static final String PROP_WORKER_THREADS = "modbus.workerThreads";
+
+	private static final ThreadPoolExecutor WORKERS;
+
+	static {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int threads = Integer.getInteger(PROP_WORKER_THREADS, Math.max(4, 2 * cores));
+		WORKERS = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				new WorkerThreadFactory());
+		WORKERS.allowCoreThreadTimeOut(true);
+	}
+
+	private SharedExecutor() {
+	}
+
+	static void execute(Runnable task) {
+		WORKERS.execute(task);
+	}
+
+	static void shutdown() {
+		WORKERS.shutdownNow();
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Modbus worker " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
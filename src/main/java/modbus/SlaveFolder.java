@@ -60,6 +60,14 @@ public class SlaveFolder {
 	static final String ATTR_SCALING = "scaling";
 	static final String ATTR_SCALING_OFFSET = "scaling offset";
 	static final String ATTR_WRITBLE = "writable";
+	static final String ATTR_POLL_CLASS = "poll class";
+	static final String ATTR_DEADBAND = "deadband";
+	static final String ATTR_DEADBAND_PERCENT = "deadband percent";
+	static final String ATTR_BIT_NODES = "bit nodes";
+
+	static final String DESCRIPTION_DEADBAND = "the smallest change of the scaled value to publish, 0 for any change";
+	static final String DESCRIPTION_DEADBAND_PERCENT = "the smallest change to publish as a percentage of the last published value, 0 for any change";
+	static final String DESCRIPTION_BIT_NODES = "for a BOOLEAN point on a whole register, also show each of its 16 bits as a child node";
 
 	static final String ATTR_RESTORE_TYPE = "restoreType";
 	static final String ATTR_RESTORE_FOLDER = "folder";
@@ -69,7 +77,12 @@ public class SlaveFolder {
 	static final String NODE_STATUS_SETTING_UP = "Setting up device";
 	static final String NODE_STATUS_PING_FAILED = "Device ping failed";
 	static final String NODE_STATUS_CONN_DOWN = "Connection Down";
+	static final String NODE_STATUS_CONN_IDLE = "Connection Idle";
 	static final String NODE_STATUS_READY = "Ready";
+	static final String NODE_STATUS_NOT_RESPONDING = "Device not responding";
+	static final String NODE_REQUESTS_PER_POLL = "Requests Per Poll";
+	static final String NODE_LATE_POLLS = "Late Polls";
+	static final String NODE_SKIPPED_POLLS = "Skipped Polls";
 
 	static final String MSG_STRING_SIZE_NOT_MATCHING = "new string size is not the same as the old one";
 
@@ -120,6 +133,13 @@ public class SlaveFolder {
 		act.addParameter(new Parameter(ATTR_SCALING, ValueType.NUMBER, new Value(1)));
 		act.addParameter(new Parameter(ATTR_SCALING_OFFSET, ValueType.NUMBER, new Value(0)));
 		act.addParameter(new Parameter(ATTR_WRITBLE, ValueType.BOOL, new Value(false)));
+		act.addParameter(new Parameter(ATTR_POLL_CLASS, ValueType.makeEnum(Util.enumNames(PollClass.class)),
+				new Value(PollClass.DEVICE.toString())));
+		act.addParameter(new Parameter(ATTR_DEADBAND, ValueType.NUMBER, new Value(0)).setDescription(DESCRIPTION_DEADBAND));
+		act.addParameter(new Parameter(ATTR_DEADBAND_PERCENT, ValueType.NUMBER, new Value(0))
+				.setDescription(DESCRIPTION_DEADBAND_PERCENT));
+		act.addParameter(new Parameter(ATTR_BIT_NODES, ValueType.BOOL, new Value(false))
+				.setDescription(DESCRIPTION_BIT_NODES));
 
 		return act;
 	}
@@ -143,12 +163,18 @@ public class SlaveFolder {
 					Value bit = child.getAttribute(ATTR_BIT);
 					if (bit == null)
 						child.setAttribute(ATTR_BIT, new Value(-1));
+					if (child.getAttribute(ATTR_POLL_CLASS) == null)
+						child.setAttribute(ATTR_POLL_CLASS, new Value(PollClass.DEVICE.toString()));
 					Value scaling = child.getAttribute(ATTR_SCALING);
 					Value addScale = child.getAttribute(ATTR_SCALING_OFFSET);
 					Value writable = child.getAttribute(ATTR_WRITBLE);
 					if (type != null && offset != null && numRegs != null && dataType != null && scaling != null
 							&& addScale != null && writable != null) {
-						if (root.node.getAttribute(ModbusConnection.ATTR_ZERO_ON_FAILED_POLL).getBool()) {
+						Value lastKnown = conn.getLink().snapshot.take(child);
+						if (lastKnown != null) {
+							// shown until the first poll replaces it
+							child.setValue(lastKnown);
+						} else if (root.node.getAttribute(ModbusConnection.ATTR_ZERO_ON_FAILED_POLL).getBool()) {
 							if (child.getValueType().compare(ValueType.NUMBER)) {
 								child.setValue(new Value(0));
 							} else if (child.getValueType().compare(ValueType.BOOL)) {
@@ -160,6 +186,7 @@ public class SlaveFolder {
 							child.setValue(null);
 						}
 						
+						root.compilePoint(child);
 						setupPointActions(child);
 						conn.getLink().setupPoint(child, root);
 					} else {
@@ -167,7 +194,10 @@ public class SlaveFolder {
 					}
 				}
 			} else if (child.getAction() == null && !(root == this
-					&& (NODE_STATUS.equals(child.getName()) || ModbusConnection.NODE_STATUS.equals(child.getName())))) {
+					&& (NODE_STATUS.equals(child.getName()) || ModbusConnection.NODE_STATUS.equals(child.getName())
+							|| ModbusConnection.NODE_WRITE_LATENCY.equals(child.getName())
+							|| NODE_REQUESTS_PER_POLL.equals(child.getName()) || NODE_LATE_POLLS.equals(child.getName())
+							|| NODE_SKIPPED_POLLS.equals(child.getName())))) {
 				node.removeChild(child, false);
 			}
 		}
@@ -334,6 +364,11 @@ public class SlaveFolder {
 			int bit = event.getParameter(ATTR_BIT, new Value(-1)).getNumber().intValue();
 			double scaling = event.getParameter(ATTR_SCALING, ValueType.NUMBER).getNumber().doubleValue();
 			double addscale = event.getParameter(ATTR_SCALING_OFFSET, ValueType.NUMBER).getNumber().doubleValue();
+			PollClass pollClass = PollClass
+					.parse(event.getParameter(ATTR_POLL_CLASS, new Value(PollClass.DEVICE.toString())).getString());
+			double deadband = event.getParameter(ATTR_DEADBAND, new Value(0)).getNumber().doubleValue();
+			double deadbandPercent = event.getParameter(ATTR_DEADBAND_PERCENT, new Value(0)).getNumber().doubleValue();
+			boolean bitNodes = event.getParameter(ATTR_BIT_NODES, new Value(false)).getBool();
 
 			Node pnode = node.createChild(name, true).setValueType(valType).build();
 			pnode.setAttribute(ATTR_POINT_TYPE, new Value(type.toString()));
@@ -344,6 +379,11 @@ public class SlaveFolder {
 			pnode.setAttribute(ATTR_SCALING, new Value(scaling));
 			pnode.setAttribute(ATTR_SCALING_OFFSET, new Value(addscale));
 			pnode.setAttribute(ATTR_WRITBLE, new Value(writable));
+			pnode.setAttribute(ATTR_POLL_CLASS, new Value(pollClass.toString()));
+			pnode.setAttribute(ATTR_DEADBAND, new Value(deadband));
+			pnode.setAttribute(ATTR_DEADBAND_PERCENT, new Value(deadbandPercent));
+			pnode.setAttribute(ATTR_BIT_NODES, new Value(bitNodes));
+			root.compilePoint(pnode);
 			setupPointActions(pnode);
 			conn.getLink().setupPoint(pnode, root);
 			pnode.setAttribute(ATTR_RESTORE_TYPE, new Value("point"));
@@ -372,6 +412,17 @@ public class SlaveFolder {
 		act.addParameter(
 				new Parameter(ATTR_SCALING_OFFSET, ValueType.NUMBER, pointNode.getAttribute(ATTR_SCALING_OFFSET)));
 		act.addParameter(new Parameter(ATTR_WRITBLE, ValueType.BOOL, pointNode.getAttribute(ATTR_WRITBLE)));
+		act.addParameter(new Parameter(ATTR_POLL_CLASS, ValueType.makeEnum(Util.enumNames(PollClass.class)),
+				pointNode.getAttribute(ATTR_POLL_CLASS)));
+		Value deadband = pointNode.getAttribute(ATTR_DEADBAND);
+		Value deadbandPercent = pointNode.getAttribute(ATTR_DEADBAND_PERCENT);
+		act.addParameter(new Parameter(ATTR_DEADBAND, ValueType.NUMBER, deadband != null ? deadband : new Value(0))
+				.setDescription(DESCRIPTION_DEADBAND));
+		act.addParameter(new Parameter(ATTR_DEADBAND_PERCENT, ValueType.NUMBER,
+				deadbandPercent != null ? deadbandPercent : new Value(0)).setDescription(DESCRIPTION_DEADBAND_PERCENT));
+		Value bitNodes = pointNode.getAttribute(ATTR_BIT_NODES);
+		act.addParameter(new Parameter(ATTR_BIT_NODES, ValueType.BOOL, bitNodes != null ? bitNodes : new Value(false))
+				.setDescription(DESCRIPTION_BIT_NODES));
 		anode = pointNode.getChild(ACTION_EDIT, true);
 		if (anode == null)
 			pointNode.createChild(ACTION_EDIT, true).setAction(act).build().setSerializable(false);
@@ -393,7 +444,37 @@ public class SlaveFolder {
 			pointNode.getListener().setValueHandler(new SetHandler(pointNode));
 		}
 		
-		pointNode.getListener().setNodeRemovedHandler(event -> root.lastUpdates.remove(event));
+		pointNode.getListener().setNodeRemovedHandler(event -> root.pointRemoved(event));
+
+		setupBitNodes(pointNode);
+	}
+
+	/**
+	 * Creates or removes the bit nodes of a point to match its bit nodes
+	 * option. They aren't serialized, since they are made again on restore.
+	 */
+	private void setupBitNodes(Node pointNode) {
+		PointDescriptor descriptor = root.getDescriptor(pointNode);
+		Value option = pointNode.getAttribute(ATTR_BIT_NODES);
+		boolean wanted = descriptor != null && descriptor.packed && option != null && option.getBool();
+		Node[] bitNodes = wanted ? new Node[PackedBits.BITS] : null;
+		for (int i = 0; i < PackedBits.BITS; i++) {
+			String name = PackedBits.bitName(i);
+			Node bitNode = pointNode.getChild(name, true);
+			if (!wanted) {
+				if (bitNode != null) {
+					pointNode.removeChild(bitNode, false);
+				}
+				continue;
+			}
+			if (bitNode == null) {
+				bitNode = pointNode.createChild(name, true).setValueType(ValueType.BOOL).build();
+				bitNode.setSerializable(false);
+			}
+			conn.getLink().setupPoint(bitNode, root);
+			bitNodes[i] = bitNode;
+		}
+		root.setBitNodes(pointNode, bitNodes);
 	}
 
 	protected class CopyPointHandler implements Handler<ActionResult> {
@@ -422,7 +503,18 @@ public class SlaveFolder {
 		pointNodeCopy.setAttribute(ATTR_SCALING, pointNode.getAttribute(ATTR_SCALING));
 		pointNodeCopy.setAttribute(ATTR_SCALING_OFFSET, pointNode.getAttribute(ATTR_SCALING_OFFSET));
 		pointNodeCopy.setAttribute(ATTR_WRITBLE, pointNode.getAttribute(ATTR_WRITBLE));
+		pointNodeCopy.setAttribute(ATTR_POLL_CLASS, pointNode.getAttribute(ATTR_POLL_CLASS));
+		if (pointNode.getAttribute(ATTR_DEADBAND) != null) {
+			pointNodeCopy.setAttribute(ATTR_DEADBAND, pointNode.getAttribute(ATTR_DEADBAND));
+		}
+		if (pointNode.getAttribute(ATTR_DEADBAND_PERCENT) != null) {
+			pointNodeCopy.setAttribute(ATTR_DEADBAND_PERCENT, pointNode.getAttribute(ATTR_DEADBAND_PERCENT));
+		}
+		if (pointNode.getAttribute(ATTR_BIT_NODES) != null) {
+			pointNodeCopy.setAttribute(ATTR_BIT_NODES, pointNode.getAttribute(ATTR_BIT_NODES));
+		}
 		pointNodeCopy.setAttribute(ATTR_RESTORE_TYPE, new Value("point"));
+		root.compilePoint(pointNodeCopy);
 		setupPointActions(pointNodeCopy);
 		conn.getLink().setupPoint(pointNodeCopy, root);
 
@@ -466,6 +558,11 @@ public class SlaveFolder {
 			int bit = event.getParameter(ATTR_BIT, new Value(-1)).getNumber().intValue();
 			double scaling = event.getParameter(ATTR_SCALING, ValueType.NUMBER).getNumber().doubleValue();
 			double addscale = event.getParameter(ATTR_SCALING_OFFSET, ValueType.NUMBER).getNumber().doubleValue();
+			PollClass pollClass = PollClass
+					.parse(event.getParameter(ATTR_POLL_CLASS, new Value(PollClass.DEVICE.toString())).getString());
+			double deadband = event.getParameter(ATTR_DEADBAND, new Value(0)).getNumber().doubleValue();
+			double deadbandPercent = event.getParameter(ATTR_DEADBAND_PERCENT, new Value(0)).getNumber().doubleValue();
+			boolean bitNodes = event.getParameter(ATTR_BIT_NODES, new Value(false)).getBool();
 
 			if (!name.equals(pointNode.getName())) {
 				Node newnode = copyPoint(pointNode, name);
@@ -480,6 +577,13 @@ public class SlaveFolder {
 			pointNode.setAttribute(ATTR_SCALING, new Value(scaling));
 			pointNode.setAttribute(ATTR_SCALING_OFFSET, new Value(addscale));
 			pointNode.setAttribute(ATTR_WRITBLE, new Value(writable));
+			pointNode.setAttribute(ATTR_POLL_CLASS, new Value(pollClass.toString()));
+			pointNode.setAttribute(ATTR_DEADBAND, new Value(deadband));
+			pointNode.setAttribute(ATTR_DEADBAND_PERCENT, new Value(deadbandPercent));
+			pointNode.setAttribute(ATTR_BIT_NODES, new Value(bitNodes));
+			// the only place an existing point's descriptor gets replaced
+			root.compilePoint(pointNode);
+			conn.getLink().schedulePolling(root);
 			setupPointActions(pointNode);
 			conn.getLink().setupPoint(pointNode, root);
 			pointNode.setAttribute(ATTR_RESTORE_TYPE, new Value("point"));
@@ -511,6 +615,7 @@ public class SlaveFolder {
 		}
 
 		public void handle(ValuePair event) {
+			long asked = System.nanoTime();
 			if (root.getMaster() == null) {
 				root.getConnection().stop();
 				return;
@@ -559,6 +664,9 @@ public class SlaveFolder {
 				return;
 			}
 
+			// merged with the device's other writes, unless it may only send single writes
+			boolean coalesce = root.writeCoalescingWindow > 0
+					&& !ModbusConnection.MULTIPLE_WRITE_COMMAND_NEVER.equals(conn.getUseMultipleWrites());
 			Queue<ModbusRequest> requests = new LinkedList<>();
 			try {
 				switch (type) {
@@ -567,6 +675,10 @@ public class SlaveFolder {
 					if (bvalues.length < 1) {
 						throw new RuntimeException("Need to provide at least one value to set");
 					}
+					if (coalesce) {
+						root.writeCoalescer.submitCoils(vnode, id, offset, bvalues, asked);
+						return;
+					}
 					if (bvalues.length == 1 && !ModbusConnection.MULTIPLE_WRITE_COMMAND_ALWAYS.equals(conn.getUseMultipleWrites())) {
 						requests.add(new WriteCoilRequest(id, offset, bvalues[0]));
 					} else if (bvalues.length > 1 && ModbusConnection.MULTIPLE_WRITE_COMMAND_NEVER.equals(conn.getUseMultipleWrites())) {
@@ -582,6 +694,10 @@ public class SlaveFolder {
 					if (svalues.length < 1) {
 						throw new RuntimeException("Need to provide at least one value to set");
 					}
+					if (coalesce) {
+						root.writeCoalescer.submitRegisters(vnode, id, offset, svalues, asked);
+						return;
+					}
 					if (svalues.length == 1 && !ModbusConnection.MULTIPLE_WRITE_COMMAND_ALWAYS.equals(conn.getUseMultipleWrites())) {
 						requests.add(new WriteRegisterRequest(id, offset, svalues[0]));
 					} else if (svalues.length > 1 && ModbusConnection.MULTIPLE_WRITE_COMMAND_NEVER.equals(conn.getUseMultipleWrites())) {
@@ -596,8 +712,10 @@ public class SlaveFolder {
 				default:
 					break;
 				}
-				for (ModbusRequest request = requests.poll(); request != null; request = requests.poll()) {
-					root.getMaster().send(request);
+				if (!requests.isEmpty()) {
+					// one after the other, so no poll reads a value half written
+					conn.send(RequestGate.Priority.WRITE, requests);
+					conn.writeDone(System.nanoTime() - asked);
 				}
 			} catch (Exception e) {
 				LOGGER.error("Error during set: " + e.getMessage());
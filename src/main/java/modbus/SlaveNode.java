@@ -1,18 +1,24 @@
 package modbus;
 
-import com.serotonin.modbus4j.BatchRead;
-import com.serotonin.modbus4j.BatchResults;
 import com.serotonin.modbus4j.ExceptionResult;
+import com.serotonin.modbus4j.Modbus;
 import com.serotonin.modbus4j.ModbusMaster;
 import com.serotonin.modbus4j.exception.ErrorResponseException;
 import com.serotonin.modbus4j.exception.ModbusTransportException;
-import com.serotonin.modbus4j.locator.BaseLocator;
-import com.serotonin.modbus4j.locator.BinaryLocator;
+import com.serotonin.modbus4j.msg.ModbusResponse;
+import com.serotonin.modbus4j.msg.ReadResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.dsa.iot.dslink.node.Node;
 import org.dsa.iot.dslink.node.Permission;
 import org.dsa.iot.dslink.node.actions.Action;
@@ -22,7 +28,6 @@ import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.handler.Handler;
-import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,16 +50,55 @@ public class SlaveNode extends SlaveFolder {
 
 	private static final int BITS_IN_REGISTER = 16;
 
+	private static final CompletableFuture<Void> POLL_DONE = CompletableFuture.completedFuture(null);
+
 	static {
 		LOGGER = LoggerFactory.getLogger(SlaveNode.class);
 	}
 
 	long intervalInMs;
 
+	// device settings, cached so that the poll loop doesn't read attributes
+	int slaveId;
+	boolean zeroOnFailedPoll;
+	boolean useBatchPolling;
+	boolean contiguousBatchRequestsOnly;
+	long suppressNonCovDuration;
+	int maxReadGap;
+	int writeCoalescingWindow;
+
 	Node statnode;
+	Node requestsNode;
+	Node latePollsNode;
+	Node skippedPollsNode;
 
-	private final ConcurrentMap<Node, Boolean> subscribed = new ConcurrentHashMap<>();
+	// subscribed points and bit nodes and the poll class each one was counted under
+	private final ConcurrentMap<Node, PollClass> subscribed = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Node, PointDescriptor> descriptors = new ConcurrentHashMap<>();
 	final ConcurrentMap<Node, Long> lastUpdates = new ConcurrentHashMap<>();
+	// points to their bit nodes by bit, and bit nodes to their points
+	private final ConcurrentMap<Node, Node[]> bitNodes = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Node, Node> bitPoints = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Node, PackedBits> packedBits = new ConcurrentHashMap<>();
+	final WriteCoalescer writeCoalescer = new WriteCoalescer(this);
+	private final AtomicLong latePolls = new AtomicLong();
+	private final AtomicLong skippedPolls = new AtomicLong();
+
+	// one plan, due time and subscriber count per poll class, all guarded by planLock
+	private final Object planLock = new Object();
+	private final ReadPlan[] readPlans = new ReadPlan[PollClass.VALUES.length];
+	private final int[] requestCounts = new int[PollClass.VALUES.length];
+	private final int[] subscribedCounts = new int[PollClass.VALUES.length];
+	private final long[] nextPolls = new long[PollClass.VALUES.length];
+
+	// the delay the link currently schedules readPoints() with
+	long pollTickInMs;
+	// the scheduler's, on the device so it carries over when polling is re-timed
+	final PollScheduler.DeviceState pollState = new PollScheduler.DeviceState();
+
+	// whether a request of the poll in progress failed
+	private volatile boolean pollFailed;
+	final DeviceHealth health = new DeviceHealth();
 
 	SlaveNode(ModbusConnection conn, Node node) {
 		super(conn, node);
@@ -68,10 +112,30 @@ public class SlaveNode extends SlaveFolder {
 					.setValue(new Value(NODE_STATUS_SETTING_UP)).build();
 		}
 
+		requestsNode = node.getChild(NODE_REQUESTS_PER_POLL, true);
+		if (requestsNode == null) {
+			requestsNode = node.createChild(NODE_REQUESTS_PER_POLL, true).setValueType(ValueType.NUMBER)
+					.setValue(new Value(0)).build();
+		}
+
+		latePollsNode = node.getChild(NODE_LATE_POLLS, true);
+		if (latePollsNode == null) {
+			latePollsNode = node.createChild(NODE_LATE_POLLS, true).setValueType(ValueType.NUMBER)
+					.setValue(new Value(0)).build();
+		}
+
+		skippedPollsNode = node.getChild(NODE_SKIPPED_POLLS, true);
+		if (skippedPollsNode == null) {
+			skippedPollsNode = node.createChild(NODE_SKIPPED_POLLS, true).setValueType(ValueType.NUMBER)
+					.setValue(new Value(0)).build();
+		}
+
 		init();
 	}
 
 	void init() {
+		readDeviceAttributes();
+		invalidateReadPlan();
 		checkDeviceConnected();
 
 		this.intervalInMs = node.getAttribute(ModbusConnection.ATTR_POLLING_INTERVAL).getNumber().longValue();
@@ -79,18 +143,222 @@ public class SlaveNode extends SlaveFolder {
 		makeEditAction();
 	}
 
+	void readDeviceAttributes() {
+		int id = Util.getIntValue(node.getAttribute(ModbusConnection.ATTR_SLAVE_ID));
+		boolean batch = node.getAttribute(ModbusConnection.ATTR_USE_BATCH_POLLING).getBool();
+		boolean contig = node.getAttribute(ModbusConnection.ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY).getBool();
+		Value gap = node.getAttribute(ModbusConnection.ATTR_MAX_READ_GAP);
+		int maxGap = gap != null ? Util.getIntValue(gap) : -1;
+		if (batch != useBatchPolling || contig != contiguousBatchRequestsOnly || maxGap != maxReadGap) {
+			useBatchPolling = batch;
+			contiguousBatchRequestsOnly = contig;
+			maxReadGap = maxGap;
+			invalidateReadPlan();
+		}
+		Value window = node.getAttribute(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW);
+		writeCoalescingWindow = window != null ? Math.max(0, Util.getIntValue(window)) : 0;
+		zeroOnFailedPoll = node.getAttribute(ModbusConnection.ATTR_ZERO_ON_FAILED_POLL).getBool();
+		suppressNonCovDuration = node.getAttribute(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION).getNumber()
+				.longValue();
+
+		if (id != slaveId) {
+			slaveId = id;
+			// the locators carry the slave id
+			for (Node pnode : descriptors.keySet()) {
+				compilePoint(pnode);
+			}
+		}
+	}
+
+	/**
+	 * (Re)builds the descriptor of a point. Must be called whenever the point
+	 * is created, edited or restored.
+	 */
+	void compilePoint(Node pnode) {
+		PointDescriptor descriptor = PointDescriptor.compile(slaveId, pnode);
+		if (descriptor != null) {
+			descriptors.put(pnode, descriptor);
+		} else {
+			descriptors.remove(pnode);
+		}
+		packedBits.remove(pnode);
+		PollClass pollClass = descriptor != null ? descriptor.pollClass : PollClass.DEVICE;
+		synchronized (planLock) {
+			for (Map.Entry<Node, PollClass> entry : subscribed.entrySet()) {
+				if (getPoint(entry.getKey()) != pnode) {
+					continue;
+				}
+				PollClass old = entry.getValue();
+				entry.setValue(pollClass);
+				subscribedCounts[old.ordinal()]--;
+				subscribedCounts[pollClass.ordinal()]++;
+				invalidateReadPlan(old);
+				invalidateReadPlan(pollClass);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the bit nodes of a point, which are polled along with it while
+	 * they are subscribed.
+	 *
+	 * @param nodes the bit nodes by bit, or null to drop them
+	 */
+	void setBitNodes(Node pnode, Node[] nodes) {
+		Node[] old;
+		if (nodes != null) {
+			for (Node bitNode : nodes) {
+				bitPoints.put(bitNode, pnode);
+			}
+			old = bitNodes.put(pnode, nodes);
+		} else {
+			old = bitNodes.remove(pnode);
+		}
+		packedBits.remove(pnode);
+		if (old == null) {
+			return;
+		}
+		// the bit nodes that are kept stay subscribed
+		List<Node> kept = nodes != null ? Arrays.asList(nodes) : Collections.emptyList();
+		for (Node bitNode : old) {
+			if (!kept.contains(bitNode) && bitPoints.remove(bitNode, pnode)) {
+				removeFromSub(bitNode);
+			}
+		}
+	}
+
+	/**
+	 * @return the point a subscribed node reads from, which is the node itself
+	 *         unless it is a bit node
+	 */
+	private Node getPoint(Node node) {
+		Node pnode = bitPoints.get(node);
+		return pnode != null ? pnode : node;
+	}
+
+	PointDescriptor getDescriptor(Node pnode) {
+		return descriptors.get(pnode);
+	}
+
+	void pointRemoved(Node pnode) {
+		descriptors.remove(pnode);
+		lastUpdates.remove(pnode);
+		setBitNodes(pnode, null);
+		removeFromSub(pnode);
+	}
+
 	void addToSub(Node event) {
-		subscribed.put(event, true);
+		PointDescriptor descriptor = descriptors.get(getPoint(event));
+		PollClass pollClass = descriptor != null ? descriptor.pollClass : PollClass.DEVICE;
+		synchronized (planLock) {
+			if (subscribed.putIfAbsent(event, pollClass) == null) {
+				subscribedCounts[pollClass.ordinal()]++;
+				invalidateReadPlan(pollClass);
+			}
+		}
 	}
 
 	void removeFromSub(Node event) {
-		subscribed.remove(event);
+		synchronized (planLock) {
+			PollClass pollClass = subscribed.remove(event);
+			if (pollClass != null) {
+				subscribedCounts[pollClass.ordinal()]--;
+				invalidateReadPlan(pollClass);
+			}
+		}
+	}
+
+	void invalidateReadPlan() {
+		synchronized (planLock) {
+			for (int i = 0; i < readPlans.length; i++) {
+				readPlans[i] = null;
+			}
+		}
+	}
+
+	private void invalidateReadPlan(PollClass pollClass) {
+		synchronized (planLock) {
+			readPlans[pollClass.ordinal()] = null;
+		}
+	}
+
+	/**
+	 * @return the delay between two calls of readPoints(), which is the
+	 *         greatest common divisor of the intervals of the poll classes
+	 *         that have subscribed points, so that every class comes due on a
+	 *         tick. The intervals are taken to the scheduler's resolution
+	 *         first, an odd device interval would otherwise make the tick tiny.
+	 */
+	long getPollTick() {
+		long tick = 0;
+		synchronized (planLock) {
+			for (PollClass pollClass : PollClass.VALUES) {
+				if (subscribedCounts[pollClass.ordinal()] > 0) {
+					tick = gcd(tick, toSchedulerTicks(pollClass.getInterval(intervalInMs)));
+				}
+			}
+		}
+		return tick == 0 ? intervalInMs : tick * PollScheduler.TICK_MS;
+	}
+
+	private static long toSchedulerTicks(long intervalInMs) {
+		return Math.max(1, (intervalInMs + PollScheduler.TICK_MS / 2) / PollScheduler.TICK_MS);
+	}
+
+	static long gcd(long a, long b) {
+		while (b != 0) {
+			long r = a % b;
+			a = b;
+			b = r;
+		}
+		return a;
+	}
+
+	/**
+	 * @return the cached plan of a poll class, rebuilding it first if its
+	 *         subscribed set or one of its points changed since the last poll
+	 */
+	ReadPlan getReadPlan(PollClass pollClass) {
+		synchronized (planLock) {
+			ReadPlan readPlan = readPlans[pollClass.ordinal()];
+			if (readPlan == null) {
+				int maxGap;
+				if (contiguousBatchRequestsOnly) {
+					maxGap = 0;
+				} else {
+					maxGap = maxReadGap < 0 ? Integer.MAX_VALUE : maxReadGap;
+				}
+				int maxrrc = conn.getMaxrrc() > 0 ? conn.getMaxrrc() : Modbus.DEFAULT_MAX_READ_REGISTER_COUNT;
+				int maxrbc = conn.getMaxrbc() > 0 ? conn.getMaxrbc() : Modbus.DEFAULT_MAX_READ_BIT_COUNT;
+				Set<Node> points = new HashSet<>();
+				for (Node subscribedNode : subscribed.keySet()) {
+					points.add(getPoint(subscribedNode));
+				}
+				readPlan = new ReadPlan(points, descriptors, pollClass, useBatchPolling, slaveId, maxGap, maxrrc,
+						maxrbc);
+				readPlans[pollClass.ordinal()] = readPlan;
+				requestCounts[pollClass.ordinal()] = readPlan.getRequestCount();
+				int total = 0;
+				for (int count : requestCounts) {
+					total += count;
+				}
+				requestsNode.setValue(new Value(total));
+			}
+			return readPlan;
+		}
 	}
 
 	Set<Node> getSubscribed() {
 		return subscribed.keySet();
 	}
 
+	/**
+	 * @return the points of the device and its folders
+	 */
+	Set<Node> getPoints() {
+		return descriptors.keySet();
+	}
+
 	boolean noneSubscribed() {
 		return subscribed.isEmpty();
 	}
@@ -111,6 +379,12 @@ public class SlaveNode extends SlaveFolder {
 		double defdur = node.getAttribute(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION).getNumber().doubleValue() / 1000;
 		act.addParameter(new Parameter(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, ValueType.NUMBER, new Value(defdur))
 				.setDescription("how many seconds to wait before sending an update for an unchanged value"));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_MAX_READ_GAP, ValueType.NUMBER,
+				node.getAttribute(ModbusConnection.ATTR_MAX_READ_GAP)).setDescription(ModbusConnection.DESCRIPTION_MAX_READ_GAP));
+		Value coalescingWindow = node.getAttribute(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW);
+		act.addParameter(new Parameter(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW, ValueType.NUMBER,
+				coalescingWindow != null ? coalescingWindow : new Value(0))
+						.setDescription(ModbusConnection.DESCRIPTION_WRITE_COALESCING_WINDOW));
 
 		Node anode = node.getChild(ACTION_EDIT, true);
 		if (anode == null)
@@ -137,6 +411,9 @@ public class SlaveNode extends SlaveFolder {
 			boolean contig = event.getParameter(ModbusConnection.ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, ValueType.BOOL)
 					.getBool();
 			long suppressDuration = (long) (event.getParameter(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, ValueType.NUMBER).getNumber().doubleValue() * 1000);
+			int maxGap = event.getParameter(ModbusConnection.ATTR_MAX_READ_GAP, ValueType.NUMBER).getNumber().intValue();
+			int coalescingWindow = event.getParameter(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW, new Value(0))
+					.getNumber().intValue();
 
 			node.setAttribute(ModbusConnection.ATTR_SLAVE_ID, new Value(slaveid));
 			node.setAttribute(ModbusConnection.ATTR_POLLING_INTERVAL, new Value(intervalInMs));
@@ -144,6 +421,9 @@ public class SlaveNode extends SlaveFolder {
 			node.setAttribute(ModbusConnection.ATTR_USE_BATCH_POLLING, new Value(batchpoll));
 			node.setAttribute(ModbusConnection.ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, new Value(contig));
 			node.setAttribute(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, new Value(suppressDuration));
+			node.setAttribute(ModbusConnection.ATTR_MAX_READ_GAP, new Value(maxGap));
+			node.setAttribute(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW, new Value(coalescingWindow));
+			readDeviceAttributes();
 
 			conn.getLink().handleEdit(root);
 
@@ -156,91 +436,239 @@ public class SlaveNode extends SlaveFolder {
 		}
 	}
 
-	public void readPoints() {
-		if (getMaster() == null) {
-			return;
+	/**
+	 * @return a future that completes when the poll is over, which is already
+	 *         done unless the batch reads went out through a NioModbusMaster
+	 */
+	CompletableFuture<Void> readPoints() {
+		ModbusMaster master = getMaster();
+		if (master == null) {
+			return POLL_DONE;
 		}
 
-		if (!NODE_STATUS_READY.equals(statnode.getValue().getString())) {
-			checkDeviceConnected();
-			if (!NODE_STATUS_READY.equals(statnode.getValue().getString())) {
-				return;
+		pollFailed = false;
+		if (health.isDown()) {
+			// a device that is down is only probed, on its own slow schedule
+			if (health.isProbeDue(System.currentTimeMillis())) {
+				probe();
+			}
+			if (health.isDown()) {
+				return POLL_DONE;
 			}
 		}
+		NioModbusMaster nio = master instanceof NioModbusMaster ? (NioModbusMaster) master : null;
+		List<CompletableFuture<Void>> pending = null;
 
-		int id = Util.getIntValue(node.getAttribute(ModbusConnection.ATTR_SLAVE_ID));
-		if (node.getAttribute(ModbusConnection.ATTR_USE_BATCH_POLLING).getBool()) {
-			BatchRead<Node> batch = new BatchRead<>();
-			batch.setContiguousRequests(
-					node.getAttribute(ModbusConnection.ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY).getBool());
-			batch.setErrorsInResults(true);
-			Set<Node> polled = new HashSet<>();
-			for (Node pnode : subscribed.keySet()) {
-				BaseLocator<?> locator = getLocator(id, pnode);
-				if (locator == null) {
-					continue;
+		// every due class goes out in the same pass, so the connection sees
+		// one request stream per tick rather than one per class
+		long now = System.currentTimeMillis();
+		long tolerance = pollTickInMs / 2;
+		for (PollClass pollClass : PollClass.VALUES) {
+			int i = pollClass.ordinal();
+			if (nextPolls[i] - tolerance > now) {
+				continue;
+			}
+			ReadPlan plan = getReadPlan(pollClass);
+			if (plan.isEmpty()) {
+				continue;
+			}
+			// by whole intervals, so a class doesn't drift by how late its tick fires
+			long interval = pollClass.getInterval(intervalInMs);
+			long next = nextPolls[i] + interval;
+			if (next - tolerance <= now) {
+				// the first poll of the class, or it fell behind
+				next = now + interval;
+			}
+			nextPolls[i] = next;
+			if (nio != null && plan.blocks != null) {
+				if (pending == null) {
+					pending = new ArrayList<>();
 				}
-				batch.addLocator(pnode, locator);
-				polled.add(pnode);
+				pending.add(readPlanAsync(nio, plan));
+			} else if (!readPlan(plan)) {
+				break;
 			}
+		}
+		if (pending == null) {
+			pollFinished(!pollFailed);
+			return POLL_DONE;
+		}
+		return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+				.whenComplete((result, error) -> pollFinished(!pollFailed));
+	}
 
-			try {
-				BatchResults<Node> response;
-				synchronized (conn.masterLock) {
-					if (getMaster() == null) {
-						return;
+	private void pollFinished(boolean succeeded) {
+		if (health.record(succeeded, System.currentTimeMillis())) {
+			LOGGER.info(node.getName() + " stopped responding, probing it every "
+					+ DeviceHealth.PROBE_INTERVAL_MS / 1000 + " seconds until it answers");
+		}
+		if (!succeeded) {
+			// no traffic, only notices a master that lost its connection
+			conn.checkConnection();
+		}
+		checkDeviceConnected();
+	}
+
+	/**
+	 * Called when the connection has a new master. The polls that failed
+	 * while it was down say nothing about the device.
+	 */
+	void connectionRestored() {
+		health.reset();
+		checkDeviceConnected();
+	}
+
+	private void probe() {
+		boolean answered = false;
+		conn.requestGate.acquire(RequestGate.Priority.READ);
+		try {
+			synchronized (conn.masterLock) {
+				if (conn.master != null) {
+					try {
+						answered = Util.pingModbusSlave(conn.master, slaveId);
+					} catch (Exception e) {
+						LOGGER.debug("error during device ping: ", e);
 					}
-					response = getMaster().send(batch);
 				}
+			}
+		} finally {
+			conn.requestGate.release();
+		}
+		if (health.probed(answered, System.currentTimeMillis())) {
+			LOGGER.info(node.getName() + " is responding again");
+		} else if (!answered) {
+			conn.checkConnection();
+		}
+		checkDeviceConnected();
+	}
 
-				if (response == null) {
-					return;
-				}
-				for (Node pnode : polled) {
-					Object obj = response.getValue(pnode);
-					updateValue(pnode, obj);
+	/*
+	 * Puts every block of the plan on the event loop at once and handles the
+	 * responses as they come in, without holding a thread in between.
+	 */
+	private CompletableFuture<Void> readPlanAsync(NioModbusMaster master, ReadPlan plan) {
+		ReadBlock[] blocks = plan.blocks;
+		AtomicBoolean failed = new AtomicBoolean();
+		CompletableFuture<?>[] reads = new CompletableFuture<?>[blocks.length];
+		for (int b = 0; b < blocks.length; b++) {
+			ReadBlock block = blocks[b];
+			reads[b] = master.sendAsync(block.request).handleAsync((response, error) -> {
+				if (error == null) {
+					updateBlock(plan, block, response);
+				} else {
+					if (!failed.getAndSet(true)) {
+						LOGGER.warn("error during batch poll: " + error.getMessage());
+						LOGGER.debug("error during batch poll: ", error);
+					}
+					if (zeroOnFailedPoll) {
+						zeroBlock(plan, block);
+					}
 				}
+				return null;
+			}, SharedExecutor::execute);
+		}
+		return CompletableFuture.allOf(reads).thenRunAsync(() -> {
+			if (failed.get()) {
+				pollFailed = true;
+			}
+		}, SharedExecutor::execute);
+	}
 
-			} catch (ModbusTransportException | ErrorResponseException e) {
-				LOGGER.warn("error during batch poll: " + e.getMessage());
-				LOGGER.debug("error during batch poll: ", e);
-				checkDeviceConnected();
-				if (node.getAttribute(ModbusConnection.ATTR_ZERO_ON_FAILED_POLL).getBool()) {
-					for (Node pnode : polled) {
-						if (pnode.getValueType().compare(ValueType.NUMBER)) {
-							pnode.setValue(new Value(0));
-						} else if (pnode.getValueType().compare(ValueType.BOOL)) {
-							pnode.setValue(new Value(false));
+	/**
+	 * @return false if the poll was cut short and the remaining classes should
+	 *         not be read this time around
+	 */
+	private boolean readPlan(ReadPlan plan) {
+		if (plan.blocks != null) {
+			ReadBlock[] blocks = plan.blocks;
+			ModbusMaster master = getMaster();
+			// a pipelined master is thread-safe and keeps a window of the
+			// following blocks on the wire while the current one is awaited
+			PipelinedTcpMaster pipeline = master instanceof PipelinedTcpMaster ? (PipelinedTcpMaster) master : null;
+			PipelinedTcpMaster.Transaction[] inFlight = null;
+			int submitted = 0;
+			if (pipeline != null) {
+				inFlight = new PipelinedTcpMaster.Transaction[blocks.length];
+			}
+			for (int b = 0; b < blocks.length; b++) {
+				ReadBlock block = blocks[b];
+				ModbusResponse response;
+				try {
+					if (pipeline != null) {
+						while (submitted < blocks.length && submitted - b < pipeline.getMaxInFlight()) {
+							inFlight[submitted] = pipeline.submit(blocks[submitted].request);
+							submitted++;
+						}
+						PipelinedTcpMaster.Transaction tx = inFlight[b];
+						inFlight[b] = null;
+						response = pipeline.await(tx);
+					} else {
+						conn.requestGate.acquire(RequestGate.Priority.POLL);
+						try {
+							synchronized (conn.masterLock) {
+								if (getMaster() == null) {
+									return false;
+								}
+								response = getMaster().send(block.request);
+							}
+						} finally {
+							conn.requestGate.release();
 						}
 					}
+				} catch (ModbusTransportException e) {
+					if (pipeline != null) {
+						for (PipelinedTcpMaster.Transaction tx : inFlight) {
+							pipeline.abandon(tx);
+						}
+					}
+					LOGGER.warn("error during batch poll: " + e.getMessage());
+					LOGGER.debug("error during batch poll: ", e);
+					pollFailed = true;
+					if (zeroOnFailedPoll) {
+						// the remaining requests are not even attempted
+						for (int r = b; r < blocks.length; r++) {
+							zeroBlock(plan, blocks[r]);
+						}
+					}
+					return false;
 				}
+
+				if (response == null) {
+					return false;
+				}
+				updateBlock(plan, block, response);
 			}
 		} else {
-			for (Node pnode : subscribed.keySet()) {
-				BaseLocator<?> locator = getLocator(id, pnode);
-				if (locator == null) {
-					continue;
-				}
+			Node[] points = plan.points;
+			PointDescriptor[] descs = plan.descriptors;
+			for (int i = 0; i < points.length; i++) {
+				Node pnode = points[i];
+				PointDescriptor descriptor = descs[i];
 
 				try {
 					Object obj;
-					synchronized (conn.masterLock) {
-						if (getMaster() == null) {
-							return;
+					conn.requestGate.acquire(RequestGate.Priority.POLL);
+					try {
+						synchronized (conn.masterLock) {
+							if (getMaster() == null) {
+								return false;
+							}
+							obj = getMaster().getValue(descriptor.locator);
 						}
-						obj = getMaster().getValue(locator);
+					} finally {
+						conn.requestGate.release();
 					}
 
 					if (obj == null) {
-						return;
+						return false;
 					}
-					updateValue(pnode, obj);
+					updateValue(pnode, descriptor, obj);
 
 				} catch (ModbusTransportException | ErrorResponseException e) {
 					LOGGER.warn("error during poll: " + e.getMessage());
 					LOGGER.debug("error during poll: ", e);
-					checkDeviceConnected();
-					if (node.getAttribute(ModbusConnection.ATTR_ZERO_ON_FAILED_POLL).getBool()) {
+					pollFailed = true;
+					if (zeroOnFailedPoll) {
 						if (pnode.getValueType().compare(ValueType.NUMBER)) {
 							pnode.setValue(new Value(0));
 						} else if (pnode.getValueType().compare(ValueType.BOOL)) {
@@ -251,32 +679,83 @@ public class SlaveNode extends SlaveFolder {
 
 			}
 		}
+		return true;
 	}
 
-	private static BaseLocator<?> getLocator(int slaveId, Node pnode) {
-		if (pnode.getAttribute(ATTR_OFFSET) == null)
-			return null;
-		PointType type = PointType.valueOf(pnode.getAttribute(ATTR_POINT_TYPE).getString());
-		int offset = Util.getIntValue(pnode.getAttribute(ATTR_OFFSET));
-		int numRegs = Util.getIntValue(pnode.getAttribute(ATTR_NUMBER_OF_REGISTERS));
-		int bit = Util.getIntValue(pnode.getAttribute(ATTR_BIT));
-		DataType dataType = DataType.valueOf(pnode.getAttribute(ATTR_DATA_TYPE).getString());
+	/**
+	 * Called by the scheduler when a poll started well after it was due.
+	 */
+	void pollLate() {
+		latePollsNode.setValue(new Value(latePolls.incrementAndGet()));
+	}
 
-		Integer dt = DataType.getDataTypeInt(dataType);
-		if (dt == null)
-			dt = com.serotonin.modbus4j.code.DataType.FOUR_BYTE_INT_SIGNED;
-		int range = PointType.getPointTypeInt(type);
+	/**
+	 * Called by the scheduler when polls were dropped because the previous one
+	 * was still running or the scheduler fell behind.
+	 */
+	void pollsSkipped(long count) {
+		skippedPollsNode.setValue(new Value(skippedPolls.addAndGet(count)));
+	}
 
-		if (dataType == DataType.BOOLEAN && !BinaryLocator.isBinaryRange(range) && bit < 0) {
-			dt = com.serotonin.modbus4j.code.DataType.TWO_BYTE_INT_SIGNED;
+	private void updateBlock(ReadPlan plan, ReadBlock block, ModbusResponse response) {
+		Node[] points = plan.points;
+		PointDescriptor[] descs = plan.descriptors;
+		if (response.isException()) {
+			ExceptionResult result = new ExceptionResult(response.getExceptionCode());
+			for (int i : block.points) {
+				updateValue(points[i], descs[i], result);
+			}
+			return;
 		}
 
-		BaseLocator<?> locator = BaseLocator.createLocator(slaveId, range, offset, dt, bit, numRegs);
-		return locator;
+		byte[] data = ((ReadResponse) response).getData();
+		for (int i : block.points) {
+			PointDescriptor desc = descs[i];
+			if (desc.packed) {
+				int word;
+				try {
+					word = PointDecoder.word(data, (desc.offset - block.startOffset) * 2);
+				} catch (ArrayIndexOutOfBoundsException e) {
+					LOGGER.warn("unable to decode " + points[i].getName() + ": response too short");
+					updateValue(points[i], desc, null);
+					continue;
+				}
+				updateBits(points[i], word);
+				continue;
+			}
+			if (desc.decoded) {
+				double number;
+				try {
+					number = PointDecoder.decode(desc.dataType, data, (desc.offset - block.startOffset) * 2);
+				} catch (ArrayIndexOutOfBoundsException e) {
+					LOGGER.warn("unable to decode " + points[i].getName() + ": response too short");
+					updateValue(points[i], desc, null);
+					continue;
+				}
+				updateNumber(points[i], desc, number / desc.scaling + desc.scalingOffset);
+				continue;
+			}
+			Object obj;
+			try {
+				obj = descs[i].locator.bytesToValue(data, block.startOffset);
+			} catch (Exception e) {
+				LOGGER.warn("unable to decode " + points[i].getName() + ": " + e.getMessage());
+				LOGGER.debug("error: ", e);
+				obj = null;
+			}
+			updateValue(points[i], descs[i], obj);
+		}
 	}
 
-	private static boolean isBitSet(int num, int bit) {
-		return ((num >> bit) & 1) == 1;
+	private static void zeroBlock(ReadPlan plan, ReadBlock block) {
+		for (int i : block.points) {
+			Node pnode = plan.points[i];
+			if (pnode.getValueType().compare(ValueType.NUMBER)) {
+				pnode.setValue(new Value(0));
+			} else if (pnode.getValueType().compare(ValueType.BOOL)) {
+				pnode.setValue(new Value(false));
+			}
+		}
 	}
 
 	private static int parseIntModulo10K(int registerContents, boolean swap) {
@@ -299,10 +778,10 @@ public class SlaveNode extends SlaveFolder {
 		return num;
 	}
 
-	private void updateValue(Node pnode, Object obj) {
-		DataType dataType = DataType.valueOf(pnode.getAttribute(ATTR_DATA_TYPE).getString());
-		double scaling = Util.getDoubleValue(pnode.getAttribute(ATTR_SCALING));
-		double addscale = Util.getDoubleValue(pnode.getAttribute(ATTR_SCALING_OFFSET));
+	private void updateValue(Node pnode, PointDescriptor descriptor, Object obj) {
+		DataType dataType = descriptor.dataType;
+		double scaling = descriptor.scaling;
+		double addscale = descriptor.scalingOffset;
 
 		ValueType vt = null;
 		Value v = null;
@@ -311,51 +790,47 @@ public class SlaveNode extends SlaveFolder {
 				vt = ValueType.BOOL;
 				v = new Value((Boolean) obj);
 			} else if (dataType == DataType.BOOLEAN && obj instanceof Number) {
-				vt = ValueType.ARRAY;
-				JsonArray jarr = new JsonArray();
-				for (int i = 0; i < BITS_IN_REGISTER; i++) {
-					jarr.add(isBitSet(((Number) obj).intValue(), i));
-				}
-				v = new Value(jarr);
+				updateBits(pnode, ((Number) obj).intValue() & 0xffff);
+				return;
 			} else if (dataType.isString() && obj instanceof String) {
 				vt = ValueType.STRING;
 				v = new Value((String) obj);
 			} else if (obj instanceof Number) {
-				vt = ValueType.NUMBER;
-				Number num = (Number) obj;
-				v = new Value(num.doubleValue() / scaling + addscale);
+				updateNumber(pnode, descriptor, ((Number) obj).doubleValue() / scaling + addscale);
+				return;
 			} else if (obj instanceof ExceptionResult) {
 				ExceptionResult result = (ExceptionResult) obj;
 				LOGGER.error(pnode.getName() + " : " + result.getExceptionMessage());
 			}
-		} else {
+		} else if (obj instanceof Number) {
 			switch (dataType) {
 			case INT32M10KSWAP:
 			case INT32M10K: {
 				int registerContents = ((Number) obj).intValue();
 				boolean swap = (dataType == DataType.INT32M10KSWAP);
 				int num = parseIntModulo10K(registerContents, swap);
-				vt = ValueType.NUMBER;
-				v = new Value(num / scaling + addscale);
-				break;
+				updateNumber(pnode, descriptor, num / scaling + addscale);
+				return;
 			}
 			case UINT32M10KSWAP:
 			case UINT32M10K: {
 				int registerContents = ((Number) obj).intValue();
 				boolean swap = (dataType == DataType.UINT32M10KSWAP);
 				long num = parseUnsignedIntModulo10K(registerContents, swap);
-				vt = ValueType.NUMBER;
-				v = new Value(num / scaling + addscale);
-				break;
+				updateNumber(pnode, descriptor, num / scaling + addscale);
+				return;
 			}
 			default:
 				vt = null;
 				v = null;
 				break;
 			}
+		} else if (obj instanceof ExceptionResult) {
+			ExceptionResult result = (ExceptionResult) obj;
+			LOGGER.error(pnode.getName() + " : " + result.getExceptionMessage());
 		}
 		
-		if (v == null && node.getAttribute(ModbusConnection.ATTR_ZERO_ON_FAILED_POLL).getBool()) {
+		if (v == null && zeroOnFailedPoll) {
 			if (pnode.getValueType().compare(ValueType.NUMBER)) {
 				v = new Value(0);
 			} else if (pnode.getValueType().compare(ValueType.BOOL)) {
@@ -372,8 +847,60 @@ public class SlaveNode extends SlaveFolder {
 		}
 	}
 	
+	/**
+	 * Publishes a scaled number, unless it is within the point's deadbands of
+	 * the value last published. A value held back by a deadband is only
+	 * published again when the device has a suppress non-cov update duration
+	 * and that much time has passed, an unchanged value of a point without
+	 * deadbands is republished as any other value is. The comparison is on
+	 * primitives, so an update that is held back allocates nothing.
+	 */
+	private void updateNumber(Node pnode, PointDescriptor descriptor, double number) {
+		if (!ValueType.NUMBER.equals(pnode.getValueType())) {
+			pnode.setValueType(ValueType.NUMBER);
+		}
+		Value published = pnode.getValue();
+		if (published != null && published.getNumber() != null) {
+			double last = published.getNumber().doubleValue();
+			if (descriptor.withinDeadband(last, number)) {
+				if (suppressNonCovDuration == 0 || !isTimeForNonCovUpdate(pnode)) {
+					return;
+				}
+			} else if (number == last && !isTimeForNonCovUpdate(pnode)) {
+				return;
+			}
+		}
+		pnode.setValue(new Value(number));
+		lastUpdates.put(pnode, System.currentTimeMillis());
+	}
+
+	/**
+	 * Publishes the bits of a register, unless it is the register last
+	 * published and no refresh is due yet.
+	 *
+	 * @param word the register, as an unsigned 16-bit value
+	 */
+	private void updateBits(Node pnode, int word) {
+		PackedBits bits = packedBits.get(pnode);
+		if (bits == null) {
+			bits = new PackedBits(bitNodes.get(pnode));
+			packedBits.put(pnode, bits);
+		}
+		if (!ValueType.ARRAY.equals(pnode.getValueType())) {
+			pnode.setValueType(ValueType.ARRAY);
+		}
+		if (bits.isChanged(word)) {
+			bits.publish(pnode, word, false);
+		} else if (isTimeForNonCovUpdate(pnode)) {
+			bits.publish(pnode, word, true);
+		} else {
+			return;
+		}
+		lastUpdates.put(pnode, System.currentTimeMillis());
+	}
+
 	private boolean isTimeForNonCovUpdate(Node pnode) {
-		long suppressDuration = node.getAttribute(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION).getNumber().longValue();
+		long suppressDuration = suppressNonCovDuration;
 		if (suppressDuration == 0) {
 			return true;
 		}
@@ -385,10 +912,6 @@ public class SlaveNode extends SlaveFolder {
 		return now - lastUpdate > suppressDuration;
 	}
 
-	public ScheduledThreadPoolExecutor getDaemonThreadPool() {
-		return conn.getDaemonThreadPool();
-	}
-
 	@Override
 	public ModbusMaster getMaster() {
 		return conn.master;
@@ -399,27 +922,25 @@ public class SlaveNode extends SlaveFolder {
 		return this.statnode;
 	}
 
+	/**
+	 * Updates the status from the connection and the device's health, without
+	 * sending anything to the device.
+	 */
 	@Override
 	void checkDeviceConnected() {
-		int slaveId = node.getAttribute(ATTR_SLAVE_ID).getNumber().intValue();
-
-		synchronized (conn.masterLock) {
-			boolean connected = false;
-			if (conn.master != null) {
-				try {
-					connected = Util.pingModbusSlave(conn.master, slaveId);
-				} catch (Exception e) {
-					LOGGER.debug("error during device ping: ", e);
-				}
-				if (connected) {
-					statnode.setValue(new Value(NODE_STATUS_READY));
-				} else {
-					statnode.setValue(new Value(NODE_STATUS_PING_FAILED));
-					conn.checkConnection();
-				}
-			} else {
-				statnode.setValue(new Value(NODE_STATUS_CONN_DOWN));
-			}
+		String status;
+		if (conn.master == null) {
+			status = conn.isIdle() ? NODE_STATUS_CONN_IDLE : NODE_STATUS_CONN_DOWN;
+		} else if (!health.isDown()) {
+			status = NODE_STATUS_READY;
+		} else if (health.isProbeFailed()) {
+			status = NODE_STATUS_PING_FAILED;
+		} else {
+			status = NODE_STATUS_NOT_RESPONDING;
+		}
+		Value current = statnode.getValue();
+		if (current == null || !status.equals(current.getString())) {
+			statnode.setValue(new Value(status));
 		}
 	}
 
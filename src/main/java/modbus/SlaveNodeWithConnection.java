@@ -1,5 +1,6 @@
 package modbus;
 
+import java.util.List;
 import org.dsa.iot.dslink.node.Node;
 import org.dsa.iot.dslink.node.Permission;
 import org.dsa.iot.dslink.node.actions.Action;
@@ -69,6 +70,12 @@ public class SlaveNodeWithConnection extends SlaveNode {
 		double defdur = node.getAttribute(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION).getNumber().doubleValue() / 1000;
 		act.addParameter(new Parameter(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, ValueType.NUMBER, new Value(defdur))
 				.setDescription("how many seconds to wait before sending an update for an unchanged value"));
+		act.addParameter(new Parameter(ModbusConnection.ATTR_MAX_READ_GAP, ValueType.NUMBER,
+				node.getAttribute(ModbusConnection.ATTR_MAX_READ_GAP)).setDescription(ModbusConnection.DESCRIPTION_MAX_READ_GAP));
+		Value coalescingWindow = node.getAttribute(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW);
+		act.addParameter(new Parameter(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW, ValueType.NUMBER,
+				coalescingWindow != null ? coalescingWindow : new Value(0))
+						.setDescription(ModbusConnection.DESCRIPTION_WRITE_COALESCING_WINDOW));
 
 		// the common parameters for connection
 		act.addParameter(new Parameter(ModbusConnection.ATTR_TIMEOUT, ValueType.NUMBER,
@@ -100,7 +107,9 @@ public class SlaveNodeWithConnection extends SlaveNode {
 
 	private class EditHandler implements Handler<ActionResult> {
 		public void handle(ActionResult event) {
-			((IpConnection) conn).readIpParameters(event);
+			IpConnectionWithDevice ipconn = (IpConnectionWithDevice) conn;
+			String oldHostName = ipconn.getHost() + ":" + ipconn.getPort();
+			ipconn.readIpParameters(event);
 			conn.readMasterParameters(event);
 
 			String currentHost = node.getAttribute(IpConnection.ATTR_HOST).getString();
@@ -119,11 +128,22 @@ public class SlaveNodeWithConnection extends SlaveNode {
 					|| !(currentRetries == conn.getRetries()) || !(currentMaxrbc == conn.getMaxrbc())
 					|| !(currentMaxrrc == conn.getMaxrrc()) || !(currentMaxwrc == conn.getMaxwrc())
 					|| !(currentDdd == conn.getDdd()) || !(currentMwo.equals(conn.getUseMultipleWrites()));
+			// the devices behind one gateway share its settings, whichever
+			// connection of the host's pool they poll through
+			List<IpConnectionWithDevice> pool = conn.getLink().getGatewayPool(ipconn);
 			if (isConnectionChanged) {
-				((IpConnection) conn).writeIpAttributes();
-
-				conn.writeMasterAttributes();
-
+				for (IpConnectionWithDevice pooled : pool) {
+					if (pooled != conn) {
+						pooled.readIpParameters(event);
+						pooled.readMasterParameters(event);
+					}
+					pooled.writeIpAttributes();
+					pooled.writeMasterAttributes();
+				}
+				String newHostName = ipconn.getHost() + ":" + ipconn.getPort();
+				if (!newHostName.equals(oldHostName)) {
+					conn.getLink().moveGatewayPool(oldHostName, newHostName);
+				}
 			}
 
 			String name = event.getParameter(ATTR_NAME, ValueType.STRING).getString();
@@ -136,6 +156,9 @@ public class SlaveNodeWithConnection extends SlaveNode {
 			boolean contig = event.getParameter(ModbusConnection.ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, ValueType.BOOL)
 					.getBool();
 			long suppressDuration = (long) (event.getParameter(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, ValueType.NUMBER).getNumber().doubleValue() * 1000);
+			int maxGap = event.getParameter(ModbusConnection.ATTR_MAX_READ_GAP, ValueType.NUMBER).getNumber().intValue();
+			int coalescingWindow = event.getParameter(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW, new Value(0))
+					.getNumber().intValue();
 
 			node.setAttribute(ModbusConnection.ATTR_SLAVE_ID, new Value(slaveid));
 			node.setAttribute(ModbusConnection.ATTR_POLLING_INTERVAL, new Value(intervalInMs));
@@ -143,9 +166,20 @@ public class SlaveNodeWithConnection extends SlaveNode {
 			node.setAttribute(ModbusConnection.ATTR_USE_BATCH_POLLING, new Value(batchpoll));
 			node.setAttribute(ModbusConnection.ATTR_CONTIGUOUS_BATCH_REQUEST_ONLY, new Value(contig));
 			node.setAttribute(ModbusConnection.ATTR_SUPPRESS_NON_COV_DURATION, new Value(suppressDuration));
+			node.setAttribute(ModbusConnection.ATTR_MAX_READ_GAP, new Value(maxGap));
+			node.setAttribute(ModbusConnection.ATTR_WRITE_COALESCING_WINDOW, new Value(coalescingWindow));
+			readDeviceAttributes();
 
 			conn.getLink().handleEdit(root);
 
+			if (isConnectionChanged) {
+				for (IpConnectionWithDevice pooled : pool) {
+					if (pooled != conn) {
+						pooled.stop();
+						pooled.restoreLastSession();
+					}
+				}
+			}
 			if (!name.equals(node.getName())) {
 				rename(name);
 			} else {
@@ -0,0 +1,268 @@
+package modbus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * The last known values of the polled points, kept in a file so that after a
+ * restart the points show their old values, with their old timestamps, until
+ * the first polls replace them, instead of going blank.
+ *
+ * The file is rewritten every modbus.lkvInterval seconds (60 by default, 0 to
+ * turn the snapshot off) on the daemon pool, by walking the points rather than
+ * by recording every update, so polling doesn't pay for it. It is written to a
+ * temporary file first and moved into place, so a crash mid-write leaves the
+ * previous snapshot intact. Where it goes can be set with the modbus.lkvFile
+ * system property.
+ *
+ * Layout, big-endian: the magic number and the entry count, then per point its
+ * path (length-prefixed UTF-8), a quality byte, the update time in epoch
+ * milliseconds, a type byte and the value. A value is BAD when it was taken
+ * while its device or connection was down, and such values are not restored.
+ *
+ * */
+final class ValueSnapshot {
+	private static final Logger LOGGER;
+
+	private static final String PROP_FILE = "modbus.lkvFile";
+	private static final String PROP_INTERVAL = "modbus.lkvInterval";
+
+	// "LKV1"
+	private static final int MAGIC = 0x4c4b5631;
+
+	private static final byte QUALITY_GOOD = 0;
+	private static final byte QUALITY_BAD = 1;
+
+	private static final byte TYPE_LONG = 0;
+	private static final byte TYPE_DOUBLE = 1;
+	private static final byte TYPE_BOOL = 2;
+	private static final byte TYPE_STRING = 3;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(ValueSnapshot.class);
+	}
+
+	private final Path file;
+	private final long intervalSeconds;
+
+	// what the last session left, until the node tree has been restored
+	private Map<String, Value> restored = new HashMap<>();
+	private int published;
+	private ScheduledFuture<?> future;
+
+	ValueSnapshot() {
+		file = Paths.get(System.getProperty(PROP_FILE, "lkv.bin"));
+		intervalSeconds = Long.getLong(PROP_INTERVAL, 60);
+	}
+
+	/**
+	 * Reads the snapshot the last session left, if any.
+	 */
+	void load() {
+		if (intervalSeconds <= 0) {
+			return;
+		}
+		try {
+			// read rather than mapped, a mapping would keep the file from being
+			// replaced on Windows until it's garbage collected
+			ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+			if (buf.getInt() != MAGIC) {
+				LOGGER.warn(file + " is not a value snapshot, ignoring it");
+				return;
+			}
+			int count = buf.getInt();
+			for (int i = 0; i < count; i++) {
+				String path = getString(buf, buf.getShort() & 0xffff);
+				byte quality = buf.get();
+				long time = buf.getLong();
+				Value value;
+				switch (buf.get()) {
+				case TYPE_LONG:
+					value = new Value(buf.getLong(), time);
+					break;
+				case TYPE_DOUBLE:
+					value = new Value(buf.getDouble(), time);
+					break;
+				case TYPE_BOOL:
+					value = new Value(buf.get() != 0, time);
+					break;
+				case TYPE_STRING:
+					value = new Value(getString(buf, buf.getInt()), time);
+					break;
+				default:
+					LOGGER.warn(file + " is corrupt, restored " + restored.size() + " values from it");
+					return;
+				}
+				if (quality == QUALITY_GOOD) {
+					restored.put(path, value);
+				}
+			}
+		} catch (NoSuchFileException e) {
+			// first start
+		} catch (BufferUnderflowException e) {
+			LOGGER.warn(file + " is truncated or corrupt, restored " + restored.size() + " values from it");
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("unable to read " + file + ": " + e.getMessage());
+			LOGGER.debug("error: ", e);
+		}
+	}
+
+	/**
+	 * @return the last known value of the point, if it fits its value type
+	 */
+	Value take(Node pnode) {
+		Value value = restored.remove(pnode.getPath());
+		if (value == null || pnode.getValueType() == null || !value.getType().compare(pnode.getValueType())) {
+			return null;
+		}
+		published++;
+		return value;
+	}
+
+	/**
+	 * Called once the node tree has been restored. Drops the values no point
+	 * claimed and starts writing the snapshot.
+	 */
+	void start(final ModbusLink link) {
+		if (published > 0) {
+			LOGGER.info("published " + published + " last known values");
+		}
+		restored = new HashMap<>();
+		if (intervalSeconds <= 0) {
+			return;
+		}
+		future = Objects.getDaemonThreadPool().scheduleWithFixedDelay(() -> write(link), intervalSeconds,
+				intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Writes the snapshot one last time, while the link shuts down.
+	 */
+	void stop(ModbusLink link) {
+		if (future == null) {
+			return;
+		}
+		future.cancel(false);
+		write(link);
+	}
+
+	private synchronized void write(ModbusLink link) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(0);
+			int count = 0;
+			for (ModbusConnection conn : new ArrayList<>(link.connections)) {
+				for (SlaveNode slave : new HashSet<>(conn.slaves)) {
+					boolean good = conn.master != null && !slave.health.isDown();
+					for (Node pnode : slave.getPoints()) {
+						if (writeEntry(out, slave, pnode, good)) {
+							count++;
+						}
+					}
+				}
+			}
+			out.flush();
+			byte[] data = bytes.toByteArray();
+			data[4] = (byte) (count >>> 24);
+			data[5] = (byte) (count >>> 16);
+			data[6] = (byte) (count >>> 8);
+			data[7] = (byte) count;
+
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.write(tmp, data);
+			try {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException | RuntimeException e) {
+			// the connections and devices may change under the walk, the next
+			// write catches up
+			LOGGER.warn("unable to write " + file + ": " + e.getMessage());
+			LOGGER.debug("error: ", e);
+		}
+	}
+
+	private static boolean writeEntry(DataOutputStream out, SlaveNode slave, Node pnode, boolean good)
+			throws IOException {
+		Value value = pnode.getValue();
+		if (value == null) {
+			return false;
+		}
+		byte[] path = pnode.getPath().getBytes(StandardCharsets.UTF_8);
+		if (path.length > 0xffff) {
+			return false;
+		}
+		byte type;
+		if (value.getType().compare(ValueType.NUMBER) && value.getNumber() != null) {
+			Number number = value.getNumber();
+			boolean integral = number instanceof Long || number instanceof Integer || number instanceof Short
+					|| number instanceof Byte;
+			type = integral ? TYPE_LONG : TYPE_DOUBLE;
+		} else if (value.getType().compare(ValueType.BOOL) && value.getBool() != null) {
+			type = TYPE_BOOL;
+		} else if (value.getType().compare(ValueType.STRING) && value.getString() != null) {
+			type = TYPE_STRING;
+		} else {
+			return false;
+		}
+		Long updated = slave.lastUpdates.get(pnode);
+
+		out.writeShort(path.length);
+		out.write(path);
+		out.writeByte(good ? QUALITY_GOOD : QUALITY_BAD);
+		out.writeLong(updated != null ? updated : value.getTime());
+		out.writeByte(type);
+		switch (type) {
+		case TYPE_LONG:
+			out.writeLong(value.getNumber().longValue());
+			break;
+		case TYPE_DOUBLE:
+			out.writeDouble(value.getNumber().doubleValue());
+			break;
+		case TYPE_BOOL:
+			out.writeByte(value.getBool() ? 1 : 0);
+			break;
+		default:
+			byte[] string = value.getString().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(string.length);
+			out.write(string);
+			break;
+		}
+		return true;
+	}
+
+	private static String getString(ByteBuffer buf, int length) {
+		if (length < 0 || length > buf.remaining()) {
+			// a corrupt length, not worth allocating for
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,225 @@
+package modbus;
+
+import com.serotonin.modbus4j.Modbus;
+import com.serotonin.modbus4j.exception.ModbusTransportException;
+import com.serotonin.modbus4j.msg.ModbusRequest;
+import com.serotonin.modbus4j.msg.ModbusResponse;
+import com.serotonin.modbus4j.msg.WriteCoilRequest;
+import com.serotonin.modbus4j.msg.WriteCoilsRequest;
+import com.serotonin.modbus4j.msg.WriteRegisterRequest;
+import com.serotonin.modbus4j.msg.WriteRegistersRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Holds a device's writes back for its write coalescing window, so that writes
+ * to adjacent holding registers or coils that come in close together, as they
+ * do when a recipe is downloaded, go out as one WriteRegistersRequest or
+ * WriteCoilsRequest rather than a round trip each.
+ *
+ * Writes go out in the order they came in. A write is merged into the request
+ * before it only if it starts right where that request ends, up to the
+ * connection's max write register count, or for coils the most a request can
+ * carry, so no write ever overtakes an earlier one. If a merged request gets an
+ * exception response, its writes are sent again one by one, so each write
+ * succeeds or fails on its own, as it would have without the window.
+ *
+ * The window is timed on the SDK's scheduler, but the writes themselves are
+ * sent from the SharedExecutor, since they block on the device.
+ *
+ * */
+class WriteCoalescer {
+	private static final Logger LOGGER;
+
+	// the most coils one Write Multiple Coils request can carry
+	static final int MAX_WRITE_COIL_COUNT = 1968;
+
+	static {
+		LOGGER = LoggerFactory.getLogger(WriteCoalescer.class);
+	}
+
+	private final SlaveNode slave;
+
+	// guarded by this
+	private List<PendingWrite> pending = new ArrayList<>();
+	private boolean flushScheduled;
+
+	WriteCoalescer(SlaveNode slave) {
+		this.slave = slave;
+	}
+
+	/**
+	 * @param asked when the write was asked for, in System.nanoTime()
+	 */
+	void submitRegisters(Node point, int slaveId, int offset, short[] values, long asked) {
+		submit(new PendingWrite(point, slaveId, offset, values, null, asked));
+	}
+
+	/**
+	 * @param asked when the write was asked for, in System.nanoTime()
+	 */
+	void submitCoils(Node point, int slaveId, int offset, boolean[] values, long asked) {
+		submit(new PendingWrite(point, slaveId, offset, null, values, asked));
+	}
+
+	private synchronized void submit(PendingWrite write) {
+		pending.add(write);
+		if (!flushScheduled) {
+			flushScheduled = true;
+			Objects.getDaemonThreadPool().schedule(() -> SharedExecutor.execute(this::flush),
+					slave.writeCoalescingWindow, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flush() {
+		List<PendingWrite> writes;
+		synchronized (this) {
+			writes = pending;
+			pending = new ArrayList<>();
+			flushScheduled = false;
+		}
+		int maxwrc = slave.conn.getMaxwrc();
+		for (List<PendingWrite> run : toRuns(writes, maxwrc > 0 ? maxwrc : Modbus.DEFAULT_MAX_WRITE_REGISTER_COUNT)) {
+			send(run);
+		}
+	}
+
+	/**
+	 * Splits writes, in the order they came in, into the runs that each go out
+	 * as one request.
+	 */
+	static List<List<PendingWrite>> toRuns(List<PendingWrite> writes, int maxRegisters) {
+		List<List<PendingWrite>> runs = new ArrayList<>();
+		List<PendingWrite> run = new ArrayList<>();
+		int length = 0;
+		for (PendingWrite write : writes) {
+			if (!run.isEmpty()) {
+				int max = write.isCoils() ? MAX_WRITE_COIL_COUNT : maxRegisters;
+				if (!write.follows(run.get(run.size() - 1)) || length + write.length() > max) {
+					runs.add(run);
+					run = new ArrayList<>();
+					length = 0;
+				}
+			}
+			run.add(write);
+			length += write.length();
+		}
+		if (!run.isEmpty()) {
+			runs.add(run);
+		}
+		return runs;
+	}
+
+	private void send(List<PendingWrite> run) {
+		String error = null;
+		try {
+			ModbusRequest request = run.size() == 1 ? toRequest(run.get(0)) : merge(run);
+			ModbusResponse response = slave.conn.send(RequestGate.Priority.WRITE, request);
+			if (response != null && response.isException()) {
+				error = response.getExceptionMessage();
+			}
+		} catch (ModbusTransportException e) {
+			// no answer, one request per write wouldn't fare any better
+			done(run, e.getMessage());
+			return;
+		}
+		if (error != null && run.size() > 1) {
+			LOGGER.debug("merged write of " + run.size() + " points failed (" + error + "), writing them one by one");
+			for (PendingWrite write : run) {
+				send(Collections.singletonList(write));
+			}
+			return;
+		}
+		done(run, error);
+	}
+
+	private void done(List<PendingWrite> run, String error) {
+		long now = System.nanoTime();
+		for (PendingWrite write : run) {
+			if (error != null) {
+				LOGGER.error("Error during set of " + write.point.getName() + ": " + error);
+			} else {
+				slave.conn.writeDone(now - write.asked);
+			}
+		}
+	}
+
+	private ModbusRequest toRequest(PendingWrite write) throws ModbusTransportException {
+		// follows the use multiple write commands option, as writes without a window do
+		boolean always = ModbusConnection.MULTIPLE_WRITE_COMMAND_ALWAYS.equals(slave.conn.getUseMultipleWrites());
+		if (write.isCoils()) {
+			if (write.coils.length == 1 && !always) {
+				return new WriteCoilRequest(write.slaveId, write.offset, write.coils[0]);
+			}
+			return new WriteCoilsRequest(write.slaveId, write.offset, write.coils);
+		}
+		if (write.registers.length == 1 && !always) {
+			return new WriteRegisterRequest(write.slaveId, write.offset, write.registers[0]);
+		}
+		return new WriteRegistersRequest(write.slaveId, write.offset, write.registers);
+	}
+
+	private static ModbusRequest merge(List<PendingWrite> run) throws ModbusTransportException {
+		PendingWrite first = run.get(0);
+		int length = 0;
+		for (PendingWrite write : run) {
+			length += write.length();
+		}
+		int at = 0;
+		if (first.isCoils()) {
+			boolean[] coils = new boolean[length];
+			for (PendingWrite write : run) {
+				System.arraycopy(write.coils, 0, coils, at, write.coils.length);
+				at += write.coils.length;
+			}
+			return new WriteCoilsRequest(first.slaveId, first.offset, coils);
+		}
+		short[] registers = new short[length];
+		for (PendingWrite write : run) {
+			System.arraycopy(write.registers, 0, registers, at, write.registers.length);
+			at += write.registers.length;
+		}
+		return new WriteRegistersRequest(first.slaveId, first.offset, registers);
+	}
+
+	static class PendingWrite {
+		final Node point;
+		final int slaveId;
+		final int offset;
+		// one of the two is null
+		final short[] registers;
+		final boolean[] coils;
+		final long asked;
+
+		PendingWrite(Node point, int slaveId, int offset, short[] registers, boolean[] coils, long asked) {
+			this.point = point;
+			this.slaveId = slaveId;
+			this.offset = offset;
+			this.registers = registers;
+			this.coils = coils;
+			this.asked = asked;
+		}
+
+		boolean isCoils() {
+			return coils != null;
+		}
+
+		int length() {
+			return isCoils() ? coils.length : registers.length;
+		}
+
+		/**
+		 * @return whether this write can be appended to a request that ends
+		 *         with the other one
+		 */
+		boolean follows(PendingWrite other) {
+			return isCoils() == other.isCoils() && slaveId == other.slaveId && offset == other.offset + other.length();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package modbus;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DeviceHealthTest {
+
+	@Test
+	public void downAfterConsecutiveFailures() {
+		DeviceHealth health = new DeviceHealth();
+		for (int i = 1; i < DeviceHealth.DOWN_CONSECUTIVE_FAILURES; i++) {
+			assertFalse(health.record(false, 0));
+		}
+		assertTrue(health.record(false, 0));
+		assertTrue(health.isDown());
+	}
+
+	@Test
+	public void ratioNeedsMinOutcomes() {
+		// fails every other poll, which only the ratio catches
+		DeviceHealth health = new DeviceHealth();
+		for (int i = 0; i < DeviceHealth.MIN_OUTCOMES - 2; i += 2) {
+			health.record(true, 0);
+			health.record(false, 0);
+			assertFalse(health.isDown());
+		}
+		health.record(true, 0);
+		assertTrue(health.record(false, 0));
+	}
+
+	@Test
+	public void answeredProbeBringsItBack() {
+		DeviceHealth health = new DeviceHealth();
+		for (int i = 0; i < DeviceHealth.DOWN_CONSECUTIVE_FAILURES; i++) {
+			health.record(false, 0);
+		}
+		assertFalse(health.isProbeDue(DeviceHealth.PROBE_INTERVAL_MS - 1));
+		assertTrue(health.isProbeDue(DeviceHealth.PROBE_INTERVAL_MS));
+		assertFalse(health.probed(false, DeviceHealth.PROBE_INTERVAL_MS));
+		assertTrue(health.isProbeFailed());
+		assertTrue(health.probed(true, 2 * DeviceHealth.PROBE_INTERVAL_MS));
+		assertFalse(health.isDown());
+	}
+}
@@ -0,0 +1,51 @@
+package modbus;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyWindowTest {
+	private static final long MS = 1000000;
+
+	@Test
+	public void emptyWindowIsZero() {
+		assertEquals(0, new LatencyWindow().getPercentileMs(99), 0);
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyWindow window = new LatencyWindow();
+		// 100 ms down to 1 ms, out of order on purpose
+		for (int i = 100; i > 0; i--) {
+			window.record(i * MS);
+		}
+		assertEquals(1, window.getPercentileMs(0), 0);
+		assertEquals(1, window.getPercentileMs(1), 0);
+		assertEquals(50, window.getPercentileMs(50), 0);
+		assertEquals(99, window.getPercentileMs(99), 0);
+		assertEquals(100, window.getPercentileMs(100), 0);
+	}
+
+	@Test
+	public void fewSamplesRoundUp() {
+		LatencyWindow window = new LatencyWindow();
+		window.record(2 * MS);
+		window.record(8 * MS);
+		// with two samples, anything above the 50th percentile is the larger one
+		assertEquals(2, window.getPercentileMs(50), 0);
+		assertEquals(8, window.getPercentileMs(51), 0);
+		assertEquals(8, window.getPercentileMs(99), 0);
+	}
+
+	@Test
+	public void oldSamplesFallOut() {
+		LatencyWindow window = new LatencyWindow();
+		for (int i = 0; i < LatencyWindow.WINDOW; i++) {
+			window.record(1000 * MS);
+		}
+		for (int i = 0; i < LatencyWindow.WINDOW; i++) {
+			window.record(MS);
+		}
+		assertEquals(1, window.getPercentileMs(100), 0);
+	}
+}
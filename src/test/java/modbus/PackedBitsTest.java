@@ -0,0 +1,45 @@
+package modbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PackedBitsTest {
+
+	@Test
+	public void firstRegisterIsChanged() {
+		PackedBits bits = new PackedBits(null);
+		// even all zeros, nothing has been published yet
+		assertTrue(bits.isChanged(0));
+		assertEquals(0xffff, bits.update(0, false));
+		assertFalse(bits.isChanged(0));
+	}
+
+	@Test
+	public void onlyFlippedBitsAreUpdated() {
+		PackedBits bits = new PackedBits(null);
+		bits.update(0x00f0, false);
+		assertTrue(bits.isChanged(0x01f1));
+		assertEquals(0x0101, bits.update(0x01f1, false));
+		assertEquals(0, bits.update(0x01f1, false));
+	}
+
+	@Test
+	public void refreshUpdatesAllBits() {
+		PackedBits bits = new PackedBits(null);
+		bits.update(0x8000, false);
+		assertFalse(bits.isChanged(0x8000));
+		assertEquals(0xffff, bits.update(0x8000, true));
+	}
+
+	@Test
+	public void highBitIsNotSignExtended() {
+		// words are unsigned, 0xffff must not be confused with the -1 of nothing published
+		PackedBits bits = new PackedBits(null);
+		bits.update(0xffff, false);
+		assertFalse(bits.isChanged(0xffff));
+		assertEquals(0x8000, bits.update(0x7fff, false));
+	}
+}
@@ -0,0 +1,119 @@
+package modbus;
+
+import static org.junit.Assert.assertEquals;
+
+import com.serotonin.modbus4j.code.RegisterRange;
+import com.serotonin.modbus4j.locator.NumericLocator;
+import java.util.Random;
+import org.junit.Test;
+
+public class PointDecoderTest {
+
+	private static byte[] bytes(int... values) {
+		byte[] data = new byte[values.length];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) values[i];
+		}
+		return data;
+	}
+
+	private static void assertDecodes(double expected, DataType dataType, byte[] data) {
+		assertEquals(dataType.name(), expected, PointDecoder.decode(dataType, data, 0), 0);
+	}
+
+	@Test
+	public void sixteenBitByteOrders() {
+		byte[] data = bytes(0xff, 0x01);
+		assertDecodes(-255, DataType.INT16, data);
+		assertDecodes(0xff01, DataType.UINT16, data);
+		assertDecodes(0x01ff, DataType.INT16SWAP, data);
+		assertDecodes(0x01ff, DataType.UINT16SWAP, data);
+		assertDecodes(-255, DataType.INT16SWAP, bytes(0x01, 0xff));
+	}
+
+	@Test
+	public void thirtyTwoBitByteOrders() {
+		byte[] data = bytes(0x80, 0x01, 0x02, 0x03);
+		assertDecodes(0x80010203, DataType.INT32, data);
+		assertDecodes(0x80010203L, DataType.UINT32, data);
+		assertDecodes(0x02038001, DataType.INT32SWAP, data);
+		assertDecodes(0x02038001L, DataType.UINT32SWAP, data);
+		assertDecodes(0x03020180, DataType.INT32SWAPSWAP, data);
+		assertDecodes(0x03020180L, DataType.UINT32SWAPSWAP, bytes(0x80, 0x01, 0x02, 0x03));
+		assertDecodes(0x80030201L, DataType.UINT32SWAPSWAP, bytes(0x01, 0x02, 0x03, 0x80));
+	}
+
+	@Test
+	public void floats() {
+		// 1.5f is 0x3fc00000
+		assertDecodes(1.5, DataType.FLOAT32, bytes(0x3f, 0xc0, 0x00, 0x00));
+		assertDecodes(1.5, DataType.FLOAT32SWAP, bytes(0x00, 0x00, 0x3f, 0xc0));
+		// -2.5 is 0xc004000000000000
+		assertDecodes(-2.5, DataType.FLOAT64, bytes(0xc0, 0x04, 0, 0, 0, 0, 0, 0));
+		assertDecodes(-2.5, DataType.FLOAT64SWAP, bytes(0, 0, 0, 0, 0, 0, 0xc0, 0x04));
+	}
+
+	@Test
+	public void sixtyFourBitByteOrders() {
+		byte[] data = bytes(0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xfe);
+		assertDecodes(-2, DataType.INT64, data);
+		assertDecodes(18446744073709551614.0, DataType.UINT64, data);
+		assertDecodes(0x0102030405060708L, DataType.INT64, bytes(1, 2, 3, 4, 5, 6, 7, 8));
+		assertDecodes(0x0708050603040102L, DataType.INT64SWAP, bytes(1, 2, 3, 4, 5, 6, 7, 8));
+		// 2^63 + 2^10 + 1 is just over half way to the next double, 2^63 + 2^11
+		assertDecodes(9223372036854777856.0, DataType.UINT64, bytes(0x80, 0, 0, 0, 0, 0, 0x04, 0x01));
+		assertDecodes(18446744073709551614.0, DataType.UINT64SWAP, bytes(0xff, 0xfe, 0xff, 0xff, 0xff, 0xff,
+				0xff, 0xff));
+	}
+
+	@Test
+	public void bcd() {
+		assertDecodes(1234, DataType.BCD16, bytes(0x12, 0x34));
+		assertDecodes(12345678, DataType.BCD32, bytes(0x12, 0x34, 0x56, 0x78));
+		assertDecodes(56781234, DataType.BCD32SWAP, bytes(0x12, 0x34, 0x56, 0x78));
+		// nibbles above 9 read as 0
+		assertDecodes(1030, DataType.BCD16, bytes(0x1a, 0x3f));
+	}
+
+	@Test
+	public void modulo10k() {
+		// 12 * 10000 + 3456
+		byte[] data = bytes(0x00, 0x0c, 0x0d, 0x80);
+		assertDecodes(123456, DataType.INT32M10K, data);
+		assertDecodes(123456, DataType.UINT32M10K, data);
+		assertDecodes(34560012, DataType.INT32M10KSWAP, data);
+		assertDecodes(34560012, DataType.UINT32M10KSWAP, data);
+		// -1 * 10000 + -1
+		assertDecodes(-10001, DataType.INT32M10K, bytes(0xff, 0xff, 0xff, 0xff));
+		assertDecodes(65535 * 10000L + 65535, DataType.UINT32M10K, bytes(0xff, 0xff, 0xff, 0xff));
+	}
+
+	@Test
+	public void decodesAtOffset() {
+		assertEquals(0x0102, PointDecoder.decode(DataType.UINT16, bytes(0xff, 0xff, 0x01, 0x02), 2), 0);
+	}
+
+	@Test
+	public void matchesModbus4jLocators() throws Exception {
+		Random random = new Random(42);
+		byte[] data = new byte[8];
+		for (DataType dataType : DataType.values()) {
+			Integer modbus4jType = DataType.getDataTypeInt(dataType);
+			if (!PointDecoder.isDecoded(dataType) || modbus4jType == null) {
+				// the M10K types have no locator of their own
+				continue;
+			}
+			NumericLocator locator = new NumericLocator(1, RegisterRange.HOLDING_REGISTER, 0, modbus4jType);
+			for (int i = 0; i < 1000; i++) {
+				random.nextBytes(data);
+				double expected = locator.bytesToValueRealOffset(data, 0).doubleValue();
+				double actual = PointDecoder.decode(dataType, data, 0);
+				if (Double.isNaN(expected)) {
+					assertEquals(dataType.name(), Double.NaN, actual, 0);
+				} else {
+					assertEquals(dataType.name(), expected, actual, 0);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package modbus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.serotonin.modbus4j.code.RegisterRange;
+import com.serotonin.modbus4j.locator.BaseLocator;
+import com.serotonin.modbus4j.locator.BinaryLocator;
+import com.serotonin.modbus4j.locator.NumericLocator;
+import org.junit.Test;
+
+public class ReadPlannerTest {
+	private static final int SLAVE_ID = 1;
+	private static final int MAX_REGISTERS = 125;
+	private static final int MAX_BITS = 2000;
+
+	private static PointDescriptor holding(int offset, DataType dataType) {
+		return descriptor(PointType.HOLDING, dataType, new NumericLocator(SLAVE_ID, RegisterRange.HOLDING_REGISTER,
+				offset, DataType.getDataTypeInt(dataType)));
+	}
+
+	private static PointDescriptor coil(int offset) {
+		return descriptor(PointType.COIL, DataType.BOOLEAN,
+				new BinaryLocator(SLAVE_ID, RegisterRange.COIL_STATUS, offset));
+	}
+
+	private static PointDescriptor descriptor(PointType pointType, DataType dataType, BaseLocator<?> locator) {
+		return new PointDescriptor(pointType, dataType, locator.getOffset(), locator.getRegisterCount(), -1, 1, 0,
+				locator, PollClass.DEVICE, 0, 0);
+	}
+
+	private static ReadBlock[] plan(int maxGap, PointDescriptor... descriptors) {
+		return ReadPlanner.plan(SLAVE_ID, descriptors, maxGap, MAX_REGISTERS, MAX_BITS);
+	}
+
+	@Test
+	public void mergesContiguousPoints() {
+		ReadBlock[] blocks = plan(0, holding(0, DataType.INT16), holding(1, DataType.INT32), holding(3, DataType.INT16));
+		assertEquals(1, blocks.length);
+		assertEquals(0, blocks[0].startOffset);
+		assertEquals(4, blocks[0].length);
+		assertArrayEquals(new int[] { 0, 1, 2 }, blocks[0].points);
+	}
+
+	@Test
+	public void readsAcrossGapsUpToMaxGap() {
+		// registers 1 and 2 are not points
+		PointDescriptor[] descriptors = { holding(0, DataType.INT16), holding(3, DataType.INT16) };
+		assertEquals(2, plan(1, descriptors).length);
+
+		ReadBlock[] blocks = plan(2, descriptors);
+		assertEquals(1, blocks.length);
+		assertEquals(0, blocks[0].startOffset);
+		assertEquals(4, blocks[0].length);
+	}
+
+	@Test
+	public void sortsPointsByOffset() {
+		ReadBlock[] blocks = plan(0, holding(2, DataType.INT16), holding(0, DataType.INT16), holding(1, DataType.INT16));
+		assertEquals(1, blocks.length);
+		assertArrayEquals(new int[] { 1, 2, 0 }, blocks[0].points);
+	}
+
+	@Test
+	public void overlappingPointsShareRegisters() {
+		ReadBlock[] blocks = plan(0, holding(0, DataType.INT32), holding(1, DataType.INT16));
+		assertEquals(1, blocks.length);
+		assertEquals(2, blocks[0].length);
+	}
+
+	@Test
+	public void keepsRangesApart() {
+		ReadBlock[] blocks = plan(Integer.MAX_VALUE, holding(0, DataType.INT16), coil(1), coil(2));
+		assertEquals(2, blocks.length);
+		assertEquals(RegisterRange.COIL_STATUS, blocks[0].range);
+		assertEquals(2, blocks[0].length);
+		assertEquals(RegisterRange.HOLDING_REGISTER, blocks[1].range);
+	}
+
+	@Test
+	public void leavesOutPointsLongerThanMaxReadCount() {
+		// four registers, with room for only three per request
+		PointDescriptor tooLong = holding(1, DataType.INT64);
+		assertFalse(ReadPlanner.fitsOneRequest(tooLong, 3, MAX_BITS));
+		assertTrue(ReadPlanner.fitsOneRequest(tooLong, 4, MAX_BITS));
+
+		ReadBlock[] blocks = ReadPlanner.plan(SLAVE_ID, new PointDescriptor[] { holding(0, DataType.INT16), tooLong,
+				holding(5, DataType.INT16) }, Integer.MAX_VALUE, 3, MAX_BITS);
+		assertEquals(2, blocks.length);
+		assertArrayEquals(new int[] { 0 }, blocks[0].points);
+		assertEquals(1, blocks[0].length);
+		assertArrayEquals(new int[] { 2 }, blocks[1].points);
+	}
+
+	@Test
+	public void splitsAtMaxReadCount() {
+		ReadBlock[] blocks = plan(Integer.MAX_VALUE, holding(0, DataType.INT16), holding(MAX_REGISTERS - 1,
+				DataType.INT16), holding(MAX_REGISTERS, DataType.INT16));
+		assertEquals(2, blocks.length);
+		assertEquals(MAX_REGISTERS, blocks[0].length);
+		assertEquals(MAX_REGISTERS, blocks[1].startOffset);
+		assertEquals(1, blocks[1].length);
+	}
+}
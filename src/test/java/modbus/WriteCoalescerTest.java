@@ -0,0 +1,88 @@
+package modbus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import modbus.WriteCoalescer.PendingWrite;
+import org.junit.Test;
+
+public class WriteCoalescerTest {
+
+	private static PendingWrite registers(int slaveId, int offset, int count) {
+		return new PendingWrite(null, slaveId, offset, new short[count], null, 0);
+	}
+
+	private static PendingWrite coils(int slaveId, int offset, int count) {
+		return new PendingWrite(null, slaveId, offset, null, new boolean[count], 0);
+	}
+
+	private static int[] offsets(List<PendingWrite> run) {
+		int[] offsets = new int[run.size()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = run.get(i).offset;
+		}
+		return offsets;
+	}
+
+	@Test
+	public void mergesAdjacentWrites() {
+		List<List<PendingWrite>> runs = WriteCoalescer.toRuns(
+				Arrays.asList(registers(1, 10, 1), registers(1, 11, 2), registers(1, 13, 1)), 120);
+		assertEquals(1, runs.size());
+		assertArrayEquals(new int[] { 10, 11, 13 }, offsets(runs.get(0)));
+	}
+
+	@Test
+	public void keepsArrivalOrder() {
+		// 20 was written last and must stay last, even though 11 follows 10
+		PendingWrite a = registers(1, 20, 1);
+		PendingWrite b = registers(1, 10, 1);
+		PendingWrite c = registers(1, 20, 1);
+		PendingWrite d = registers(1, 11, 1);
+		List<List<PendingWrite>> runs = WriteCoalescer.toRuns(Arrays.asList(a, b, c, d), 120);
+		assertEquals(4, runs.size());
+		assertSame(a, runs.get(0).get(0));
+		assertSame(b, runs.get(1).get(0));
+		assertSame(c, runs.get(2).get(0));
+		assertSame(d, runs.get(3).get(0));
+	}
+
+	@Test
+	public void doesNotMergeBackwards() {
+		// 11 then 10 is adjacent, but merging would send 10 first
+		List<List<PendingWrite>> runs = WriteCoalescer.toRuns(Arrays.asList(registers(1, 11, 1), registers(1, 10, 1)),
+				120);
+		assertEquals(2, runs.size());
+		assertArrayEquals(new int[] { 11 }, offsets(runs.get(0)));
+		assertArrayEquals(new int[] { 10 }, offsets(runs.get(1)));
+	}
+
+	@Test
+	public void splitsOnGapSlaveIdAndKind() {
+		List<List<PendingWrite>> runs = WriteCoalescer.toRuns(Arrays.asList(registers(1, 0, 1), registers(1, 2, 1),
+				registers(2, 3, 1), coils(2, 4, 1), coils(2, 5, 1)), 120);
+		assertEquals(4, runs.size());
+		assertEquals(2, runs.get(3).size());
+	}
+
+	@Test
+	public void splitsAtMaxCount() {
+		List<List<PendingWrite>> runs = WriteCoalescer.toRuns(
+				Arrays.asList(registers(1, 0, 2), registers(1, 2, 2), registers(1, 4, 1), registers(1, 5, 2)), 5);
+		assertEquals(2, runs.size());
+		assertArrayEquals(new int[] { 0, 2, 4 }, offsets(runs.get(0)));
+		assertArrayEquals(new int[] { 5 }, offsets(runs.get(1)));
+	}
+
+	@Test
+	public void coilsUseTheirOwnMaxCount() {
+		List<List<PendingWrite>> runs = WriteCoalescer.toRuns(Arrays.asList(coils(1, 0, 100), coils(1, 100, 100)), 5);
+		assertEquals(1, runs.size());
+		runs = WriteCoalescer.toRuns(Arrays.asList(coils(1, 0, WriteCoalescer.MAX_WRITE_COIL_COUNT), coils(1,
+				WriteCoalescer.MAX_WRITE_COIL_COUNT, 1)), 5);
+		assertEquals(2, runs.size());
+	}
+}